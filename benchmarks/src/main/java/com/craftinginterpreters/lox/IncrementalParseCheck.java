@@ -0,0 +1,195 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * IncrementalParser与完整解析的差分检查
+ * 对随机生成的源码连续做随机修改（插入、删除、替换声明、引号、括号、注释和换行），
+ * 每次修改后比较增量结果与对当前源码完整解析的语句（含每个标记的行号和列号）和语法错误，
+ * 结果不同时打印修改前后的源码并以状态1退出
+ * 用法：java -cp benchmarks/target/benchmarks.jar com.craftinginterpreters.lox.IncrementalParseCheck [种子] [次数]
+ */
+public final class IncrementalParseCheck {
+    private static final String[] FRAGMENTS = {
+            "var a = 1;", "print a;", "a = a + 2;", "{ var b = a; print b; }", "{", "}",
+            "\"", "\"s\"", "\n", "\n\n", "// note \"q\n", " ", ";", "(", ")", "@", "var", "print", "1.5"
+    };
+    //每个源码上连续修改的次数
+    private static final int EDITS = 20;
+
+    private IncrementalParseCheck() {
+    }
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        Random random = new Random(seed);
+        for (int i = 0; i < iterations; i++) {
+            String source = fragments(random, random.nextInt(30));
+            IncrementalParser parser = new IncrementalParser(source);
+            check(parser, null, source, i);
+            for (int j = 0; j < EDITS; j++) {
+                String before = parser.source();
+                int offset = random.nextInt(before.length() + 1);
+                int removed = random.nextInt(Math.min(before.length() - offset, 12) + 1);
+                parser.edit(offset, removed, fragments(random, random.nextInt(3)));
+                check(parser, before, parser.source(), i);
+            }
+        }
+        System.out.println("ok: " + iterations + " sources, " + EDITS + " edits each");
+    }
+
+    private static String fragments(Random random, int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return out.toString();
+    }
+
+    private static void check(IncrementalParser parser, String before, String source, int iteration) {
+        DiagnosticCollector reporter = new DiagnosticCollector(null, Integer.MAX_VALUE);
+        List<Stmt> expected = new Parser(new Scanner(source, reporter), reporter).parse();
+        String left = dump(expected) + reporter.diagnostics();
+        String right = dump(parser.statements()) + parser.diagnostics();
+        if (left.equals(right)) return;
+        System.out.println("Mismatch at iteration " + iteration + ":");
+        if (before != null) {
+            System.out.println("before: " + before.replace("\n", "\\n"));
+        }
+        System.out.println("after:  " + source.replace("\n", "\\n"));
+        System.out.println("full parse:\n" + left + "\nincremental:\n" + right);
+        System.exit(1);
+    }
+
+    /**
+     * 每条语句一行，标记带行号和列号；有语法错误的语句为null
+     */
+    private static String dump(List<Stmt> statements) {
+        Dumper dumper = new Dumper();
+        for (Stmt statement : statements) {
+            dumper.stmt(statement);
+            dumper.out.append('\n');
+        }
+        return dumper.out.toString();
+    }
+
+    private static final class Dumper implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+        final StringBuilder out = new StringBuilder();
+
+        void stmt(Stmt stmt) {
+            if (stmt == null) {
+                out.append("null");
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void token(Token token) {
+            out.append(' ').append(token.lexeme).append('@').append(token.line).append(':').append(token.column);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            out.append("(block");
+            token(stmt.brace);
+            for (Stmt statement : stmt.statements) {
+                out.append(' ');
+                stmt(statement);
+            }
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            out.append("(expr ");
+            stmt.expression.accept(this);
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            out.append("(import");
+            token(stmt.keyword);
+            token(stmt.path);
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            out.append("(print");
+            token(stmt.keyword);
+            out.append(' ');
+            stmt.expression.accept(this);
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            out.append("(var");
+            token(stmt.name);
+            if (stmt.initializer != null) {
+                out.append(' ');
+                stmt.initializer.accept(this);
+            }
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            out.append("(=");
+            token(expr.name);
+            out.append(' ');
+            expr.value.accept(this);
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            out.append('(');
+            expr.left.accept(this);
+            token(expr.operator);
+            out.append(' ');
+            expr.right.accept(this);
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            out.append("(group ");
+            expr.expression.accept(this);
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            out.append(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            out.append('(');
+            token(expr.operator);
+            out.append(' ');
+            expr.right.accept(this);
+            out.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            token(expr.name);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分阶段测量扫描、解析、解释执行和语法树打印
+ * 每个阶段的输入都在Setup中由前一阶段准备好，只测量本阶段
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoxBenchmark {
+
+    //源码单元个数
+    @Param({"100", "1000", "10000"})
+    int units;
+
+    private String source;
+    private List<Token> tokens;
+    private TokenBuffer tokenBuffer;
+    private List<Stmt> statements;
+    private AstArena arena;
+    private List<Expr> expressions;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = LoxCorpus.generate(units);
+        tokens = new Scanner(source).scanTokens();
+        tokenBuffer = new Scanner(source).scanTokenBuffer();
+        statements = new Parser(tokens).parse();
+        new Resolver().resolve(statements);
+        arena = new ArenaParser(tokenBuffer).parse();
+        expressions = new ArrayList<>();
+        collectExpressions(statements);
+        //解释执行的print输出不计入测量
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public TokenBuffer scanToBuffer() {
+        return new Scanner(source).scanTokenBuffer();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> parseBuffer() {
+        return new Parser(tokenBuffer).parse();
+    }
+
+    @Benchmark
+    public AstArena parseFlat() {
+        return new ArenaParser(tokenBuffer).parse();
+    }
+
+    @Benchmark
+    public void interpret() {
+        new Interpreter().interpret(statements);
+    }
+
+    @Benchmark
+    public void interpretNodes() {
+        new NodeInterpreter(Interpreter.standardOutput()).interpret(statements);
+    }
+
+    @Benchmark
+    public void interpretJvm() {
+        new JvmInterpreter(Interpreter.standardOutput()).interpret(statements);
+    }
+
+    @Benchmark
+    public void interpretFlat() {
+        new ArenaInterpreter(Interpreter.standardOutput()).interpret(arena);
+    }
+
+    @Benchmark
+    public void print(Blackhole blackhole) {
+        AstPrinter printer = new AstPrinter();
+        for (Expr expr : expressions) {
+            blackhole.consume(printer.print(expr));
+        }
+    }
+
+    private void collectExpressions(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Block) {
+                collectExpressions(((Stmt.Block) stmt).statements);
+            } else if (stmt instanceof Stmt.Expression) {
+                expressions.add(((Stmt.Expression) stmt).expression);
+            } else if (stmt instanceof Stmt.Print) {
+                expressions.add(((Stmt.Print) stmt).expression);
+            } else if (stmt instanceof Stmt.Var && ((Stmt.Var) stmt).initializer != null) {
+                expressions.add(((Stmt.Var) stmt).initializer);
+            }
+        }
+    }
+}
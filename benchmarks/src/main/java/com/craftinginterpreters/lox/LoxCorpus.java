@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Random;
+
+/**
+ * 生成基准测试用的Lox源码
+ * 每个单元包含全局变量、多层嵌套块、算术链、比较、字符串拼接和注释，
+ * 单元数越多源码越大，固定随机种子保证每次生成的内容相同
+ */
+final class LoxCorpus {
+    private LoxCorpus() {
+    }
+
+    static String generate(int units) {
+        Random random = new Random(42);
+        StringBuilder source = new StringBuilder();
+        source.append("// generated benchmark corpus\n");
+        source.append("var scale = 3;\n");
+        source.append("var label = \"report\";\n");
+        for (int i = 0; i < units; i++) {
+            int a = random.nextInt(100);
+            int b = random.nextInt(100) + 1;
+            source.append("// unit ").append(i).append('\n');
+            source.append("var v").append(i).append(" = (")
+                    .append(a).append(" + scale) * ").append(b)
+                    .append(" - ").append(a).append(".5 / ").append(b).append(";\n");
+            switch (random.nextInt(3)) {
+                case 0:
+                    source.append("{\n")
+                            .append("  var x = v").append(i).append(" * scale;\n")
+                            .append("  {\n")
+                            .append("    var y = x + 1.5;\n")
+                            .append("    x = y - v").append(i).append(";\n")
+                            .append("    print x > y;\n")
+                            .append("  }\n")
+                            .append("  print x;\n")
+                            .append("}\n");
+                    break;
+                case 1:
+                    source.append("{\n")
+                            .append("  var name = label + \"-").append(i).append("\";\n")
+                            .append("  print name == \"report\";\n")
+                            .append("  label = name;\n")
+                            .append("}\n");
+                    break;
+                default:
+                    source.append("print !(v").append(i).append(" <= ")
+                            .append(b).append(") != (scale >= 2);\n");
+                    source.append("v").append(i).append(" = -v").append(i)
+                            .append(" * (scale - 1) / 2;\n");
+                    break;
+            }
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ParallelScanner与Scanner顺序扫描的差分检查
+ * 随机拼出含跨行字符串、注释、注释里的引号和非法字符的源码，强制切成很小的块并随机设置错误上限，
+ * 比较两边的每个标记（类型、词素、行号、列号）和每条扫描错误，结果不同时打印源码并以状态1退出
+ * 用法：java -cp benchmarks/target/benchmarks.jar com.craftinginterpreters.lox.ParallelScanCheck [种子] [次数]
+ */
+public final class ParallelScanCheck {
+    private static final String[] PARTS = {
+            "\"", "\n", "//", " ", "a", "1", "1.5", "var", "@", "\"x\n", "/", "#", ";",
+            "\"//q\"", "// \"q\n", "\n\n", "é"
+    };
+
+    private ParallelScanCheck() {
+    }
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Random random = new Random(seed);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int i = 0; i < iterations; i++) {
+                StringBuilder source = new StringBuilder();
+                int parts = random.nextInt(60);
+                for (int j = 0; j < parts; j++) {
+                    source.append(PARTS[random.nextInt(PARTS.length)]);
+                }
+                int maxErrors = random.nextBoolean() ? Integer.MAX_VALUE : 1 + random.nextInt(4);
+                int chunkSize = 1 + random.nextInt(8);
+                String mismatch = compare(source.toString(), maxErrors, chunkSize, pool);
+                if (mismatch != null) {
+                    System.out.println("Mismatch at iteration " + i + " (maxErrors=" + maxErrors
+                            + ", chunkSize=" + chunkSize + "):");
+                    System.out.println(source.toString().replace("\n", "\\n"));
+                    System.out.println(mismatch);
+                    System.exit(1);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("ok: " + iterations + " sources");
+    }
+
+    /**
+     * @return 两边结果相同时为null
+     */
+    private static String compare(String source, int maxErrors, int chunkSize, ForkJoinPool pool) {
+        Recorder sequential = new Recorder(maxErrors);
+        TokenBuffer expected = new Scanner(source, sequential).scanTokenBuffer();
+        Recorder parallel = new Recorder(maxErrors);
+        TokenBuffer actual = new ParallelScanner(source.toCharArray(), parallel, maxErrors, chunkSize, pool)
+                .scanTokenBuffer();
+        //达到上限后两边都不再报告，EOF的列号没有意义
+        boolean capped = sequential.full();
+        String left = dump(expected, capped) + sequential.errors;
+        String right = dump(actual, capped) + parallel.errors;
+        return left.equals(right) ? null : "sequential:\n" + left + "\nparallel:\n" + right;
+    }
+
+    private static String dump(TokenBuffer tokens, boolean capped) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.token(i);
+            boolean eof = token.type == TokenType.EOF;
+            out.append(token.type).append(' ').append(token.lexeme).append(' ')
+                    .append(token.line).append(':').append(eof && capped ? 0 : token.column).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static final class Recorder implements ErrorReporter {
+        private final int limit;
+        private final List<String> errors = new ArrayList<>();
+
+        Recorder(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void report(int line, int column, Token token, String message) {
+            errors.add(line + ":" + column + " " + message);
+        }
+
+        @Override
+        public boolean full() {
+            return errors.size() >= limit;
+        }
+    }
+}
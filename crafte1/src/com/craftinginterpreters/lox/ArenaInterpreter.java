@@ -0,0 +1,178 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+
+/**
+ * 按下标遍历AstArena执行，结果和错误信息与树遍历解释器相同
+ * 执行时只读取基本类型数组，标记只在报错时生成
+ */
+class ArenaInterpreter {
+    final Environment globals;
+    private Environment environment;
+    private final PrintWriter out;
+    //按节点下标缓存的全局变量单元，每次interpret按语法树大小重新分配
+    private Environment.Cell[] cells;
+
+    ArenaInterpreter(PrintWriter out) {
+        this(out, new Environment());
+    }
+
+    ArenaInterpreter(PrintWriter out, Environment globals) {
+        this.out = out;
+        this.globals = globals;
+        this.environment = globals;
+    }
+
+    /**
+     * 执行结束或出现运行时错误时刷新输出，运行时错误交给调用方报告
+     * @param arena 没有语法错误
+     */
+    void interpret(AstArena arena) {
+        cells = new Environment.Cell[arena.size()];
+        try {
+            for (int i = 0; i < arena.programCount(); i++) {
+                execute(arena, arena.programStatement(i));
+            }
+        } finally {
+            cells = null;
+            out.flush();
+        }
+    }
+
+    private void execute(AstArena arena, int node) {
+        switch (arena.kind(node)) {
+            case AstArena.EXPRESSION:
+                evaluate(arena, arena.expression(node));
+                break;
+            case AstArena.PRINT:
+                out.println(Interpreter.stringify(evaluate(arena, arena.expression(node))));
+                break;
+            case AstArena.VAR: {
+                int initializer = arena.initializer(node);
+                Object value = initializer < 0 ? null : evaluate(arena, initializer);
+                int slot = arena.slot(node);
+                if (slot >= 0) {
+                    environment.defineAt(slot, value);
+                } else {
+                    globals.define(arena.name(node), value);
+                }
+                break;
+            }
+            case AstArena.BLOCK: {
+                //ArenaParser为每个块都建立作用域，没有变量的块复用帧时只是换一下当前环境
+                int slotCount = arena.slotCount(node);
+                Environment previous = environment;
+                try {
+                    environment = previous.enter(slotCount);
+                    int count = arena.statementCount(node);
+                    for (int i = 0; i < count; i++) {
+                        execute(arena, arena.statement(node, i));
+                    }
+                } finally {
+                    environment.leave(slotCount);
+                    environment = previous;
+                }
+                break;
+            }
+            case AstArena.IMPORT:
+                //被引入的文件已由ModuleLoader按依赖顺序先执行
+                break;
+            default:
+                throw new IllegalStateException("Not a statement: " + arena.kind(node));
+        }
+    }
+
+    private Object evaluate(AstArena arena, int node) {
+        switch (arena.kind(node)) {
+            case AstArena.LITERAL:
+                return arena.constant(node);
+            case AstArena.GROUPING:
+                return evaluate(arena, arena.expression(node));
+            case AstArena.UNARY: {
+                Object right = evaluate(arena, arena.operand(node));
+                if (arena.operator(node) == TokenType.BANG) {
+                    return !Interpreter.isTruthy(right);
+                }
+                if (!(right instanceof Double)) {
+                    throw new RuntimeError(arena.token(node), "Operand must be a number");
+                }
+                return -(double) right;
+            }
+            case AstArena.BINARY:
+                return binary(arena, node);
+            case AstArena.VARIABLE: {
+                int depth = arena.depth(node);
+                if (depth >= 0) {
+                    return environment.getAt(depth, arena.slot(node));
+                }
+                return cell(arena, node).value;
+            }
+            case AstArena.ASSIGN: {
+                Object value = evaluate(arena, arena.value(node));
+                int depth = arena.depth(node);
+                if (depth >= 0) {
+                    environment.assignAt(depth, arena.slot(node), value);
+                } else {
+                    cell(arena, node).value = value;
+                }
+                return value;
+            }
+            default:
+                throw new IllegalStateException("Not an expression: " + arena.kind(node));
+        }
+    }
+
+    private Object binary(AstArena arena, int node) {
+        Object left = evaluate(arena, arena.left(node));
+        Object right = evaluate(arena, arena.right(node));
+        TokenType operator = arena.operator(node);
+        switch (operator) {
+            case PLUS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left + (double) right;
+                }
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return Rope.concat(left, right);
+                }
+                throw new RuntimeError(arena.token(node), "Operands must two numbers or two strings.");
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(left, right);
+        }
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            throw new RuntimeError(arena.token(node), "Operands must be numbers.");
+        }
+        double a = (double) left;
+        double b = (double) right;
+        switch (operator) {
+            case MINUS: return a - b;
+            case SLASH: return a / b;
+            case STAR: return a * b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+        }
+        throw new IllegalStateException("Not a binary operator: " + operator);
+    }
+
+    /**
+     * 第一次访问时按名称查找，之后直接使用缓存的单元
+     * @param arena
+     * @param node VARIABLE或ASSIGN
+     * @return
+     */
+    private Environment.Cell cell(AstArena arena, int node) {
+        Environment.Cell cell = cells[node];
+        if (cell == null) {
+            cell = globals.findCell(arena.name(node));
+            if (cell == null) {
+                String name = arena.name(node);
+                throw new RuntimeError(arena.token(node), "Undefined variable '" + name + "'.");
+            }
+            cells[node] = cell;
+        }
+        return cell;
+    }
+}
@@ -0,0 +1,344 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * 把TokenBuffer中的标记解析为AstArena
+ * 语法、错误信息和出错后的同步与Parser相同，同时完成Resolver的工作：
+ * 声明总在使用之前，解析到变量时就能确定它的深度和下标
+ */
+class ArenaParser {
+    /**
+     * 只用于跳出到declaration后同步，不记录调用栈
+     */
+    private static class ParserError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ParserError() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final TokenBuffer tokens;
+    private final ErrorReporter reporter;
+    //暂存的扫描错误，为null时扫描错误已直接报告
+    private final ScanErrors scanErrors;
+    private final AstArena arena;
+    //下一个标记的下标
+    private int current = 0;
+    //错误接收方已满时视为已到结尾
+    private boolean stopped = false;
+    //局部作用域栈，key 变量名称，value 变量在该作用域中的下标
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+    //正在解析的各层块中已解析的语句，块结束时整体移入arena
+    private int[] pending = new int[64];
+    private int pendingSize = 0;
+
+    ArenaParser(TokenBuffer tokens) {
+        this(tokens, Lox.reporter);
+    }
+
+    ArenaParser(TokenBuffer tokens, ErrorReporter reporter) {
+        this(tokens, null, reporter);
+    }
+
+    /**
+     * 扫描错误暂存在scanErrors中，解析时按流式解析的顺序与解析错误交错报告
+     * @param tokens
+     * @param scanErrors
+     * @param reporter
+     */
+    ArenaParser(TokenBuffer tokens, ScanErrors scanErrors, ErrorReporter reporter) {
+        this.tokens = tokens;
+        this.reporter = reporter;
+        this.scanErrors = scanErrors;
+        this.arena = new AstArena(tokens);
+    }
+
+    /**
+     * 有语法错误时出错的语句不在结果中，结果不能执行
+     * @return
+     */
+    AstArena parse() {
+        if (scanErrors != null) scanErrors.reached(tokens, current);
+        int base = pendingSize;
+        while (!isAtEnd()) {
+            push(declaration());
+        }
+        arena.program(arena.list(pending, base, pendingSize), pendingSize - base);
+        pendingSize = base;
+        return arena;
+    }
+
+    private void push(int statement) {
+        if (statement < 0) return;
+        if (pendingSize == pending.length) {
+            pending = Arrays.copyOf(pending, pendingSize * 2);
+        }
+        pending[pendingSize++] = statement;
+    }
+
+    /**
+     * @return 语句下标，有语法错误时为-1
+     */
+    private int declaration() {
+        try {
+            if (match(IMPORT)) return importDeclaration();
+            if (match(VAR)) return varDeclaration();
+            return statement();
+        } catch (ParserError error) {
+            synchronize();
+            return -1;
+        }
+    }
+
+    private int statement() {
+        if (match(PRINT)) return printStatement();
+        if (match(LEFT_BRACE)) return block();
+        return expressionStatement();
+    }
+
+    private int printStatement() {
+        int keyword = current - 1;
+        int value = expression();
+        consume(SEMICOLON, "Expect ';' after value.");
+        return arena.add(AstArena.PRINT, keyword, value, 0, 0);
+    }
+
+    private int importDeclaration() {
+        int keyword = current - 1;
+        if (!scopes.isEmpty()) {
+            throw error(keyword, "Import must be at top level.");
+        }
+        consume(STRING, "Expect module path string after 'import'.");
+        int path = current - 1;
+        consume(SEMICOLON, "Expect ';' after import.");
+        return arena.add(AstArena.IMPORT, path, 0, 0, 0);
+    }
+
+    private int varDeclaration() {
+        consume(IDENTIFIER, "Expect variable name.");
+        int name = current - 1;
+        int initializer = -1;
+        if (match(EQUAL)) {
+            initializer = expression();
+        }
+        consume(SEMICOLON, "Expect ';' after variable declaration.");
+        //先解析初始化表达式再声明，与运行时先求值再定义的顺序一致
+        return arena.add(AstArena.VAR, name, initializer, declare(name), 0);
+    }
+
+    private int expressionStatement() {
+        int expr = expression();
+        consume(SEMICOLON, "Expect ';' after expression.");
+        return arena.add(AstArena.EXPRESSION, -1, expr, 0, 0);
+    }
+
+    private int block() {
+        int base = pendingSize;
+        scopes.add(new HashMap<>());
+        try {
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                push(declaration());
+            }
+            consume(RIGHT_BRACE, "Expect '}' after block.");
+            int slotCount = scopes.get(scopes.size() - 1).size();
+            int start = arena.list(pending, base, pendingSize);
+            return arena.add(AstArena.BLOCK, -1, start, pendingSize - base, slotCount);
+        } finally {
+            pendingSize = base;
+            scopes.remove(scopes.size() - 1);
+        }
+    }
+
+    /**
+     * 在当前作用域声明变量，同一作用域内重复声明复用原下标
+     * @param name 标记下标
+     * @return 变量下标，全局变量返回-1
+     */
+    private int declare(int name) {
+        if (scopes.isEmpty()) return -1;
+        Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+        String lexeme = tokens.lexeme(name);
+        Integer slot = scope.get(lexeme);
+        if (slot == null) {
+            slot = scope.size();
+            scope.put(lexeme, slot);
+        }
+        return slot;
+    }
+
+    private int expression() {
+        return assignment();
+    }
+
+    private int assignment() {
+        int expr = equality();
+        if (match(EQUAL)) {
+            int equals = current - 1;
+            int value = assignment();
+            if (arena.kind(expr) == AstArena.VARIABLE) {
+                return arena.add(AstArena.ASSIGN, arena.tokenIndex(expr), value,
+                        arena.depth(expr), arena.slot(expr));
+            }
+            error(equals, "Invalid assignment target.");
+        }
+        return expr;
+    }
+
+    private int equality() {
+        int expr = comparison();
+        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
+            int operator = current - 1;
+            expr = arena.add(AstArena.BINARY, operator, expr, comparison(), 0);
+        }
+        return expr;
+    }
+
+    private int comparison() {
+        int expr = term();
+        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
+            int operator = current - 1;
+            expr = arena.add(AstArena.BINARY, operator, expr, term(), 0);
+        }
+        return expr;
+    }
+
+    private int term() {
+        int expr = factor();
+        while (match(MINUS, PLUS)) {
+            int operator = current - 1;
+            expr = arena.add(AstArena.BINARY, operator, expr, factor(), 0);
+        }
+        return expr;
+    }
+
+    private int factor() {
+        int expr = unary();
+        while (match(SLASH, STAR)) {
+            int operator = current - 1;
+            expr = arena.add(AstArena.BINARY, operator, expr, unary(), 0);
+        }
+        return expr;
+    }
+
+    private int unary() {
+        if (match(BANG, MINUS)) {
+            int operator = current - 1;
+            return arena.add(AstArena.UNARY, operator, unary(), 0, 0);
+        }
+        return primary();
+    }
+
+    private int primary() {
+        if (match(FALSE)) return literal(AstArena.FALSE_CONSTANT);
+        if (match(TRUE)) return literal(AstArena.TRUE_CONSTANT);
+        if (match(NIL)) return literal(AstArena.NIL_CONSTANT);
+
+        if (match(NUMBER, STRING)) {
+            return literal(arena.constant(tokens.literal(current - 1)));
+        }
+        if (match(IDENTIFIER)) {
+            return variable(current - 1);
+        }
+        if (match(LEFT_PAREN)) {
+            int expr = expression();
+            consume(RIGHT_PAREN, "Expect ')' after expression.");
+            return arena.add(AstArena.GROUPING, -1, expr, 0, 0);
+        }
+        throw error(current, "Expect expression.");
+    }
+
+    private int literal(int constant) {
+        return arena.add(AstArena.LITERAL, -1, constant, 0, 0);
+    }
+
+    /**
+     * 由内向外查找变量，找不到视为全局变量
+     * @param name 标记下标
+     * @return
+     */
+    private int variable(int name) {
+        String lexeme = tokens.lexeme(name);
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer slot = scopes.get(i).get(lexeme);
+            if (slot != null) {
+                return arena.add(AstArena.VARIABLE, name, scopes.size() - 1 - i, slot, 0);
+            }
+        }
+        return arena.add(AstArena.VARIABLE, name, -1, -1, 0);
+    }
+
+    private boolean match(TokenType... types) {
+        for (TokenType type : types) {
+            if (check(type)) {
+                advance();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
+        throw error(current, message);
+    }
+
+    private boolean check(TokenType type) {
+        if (isAtEnd()) return false;
+        return tokens.type(current) == type;
+    }
+
+    private void advance() {
+        if (!isAtEnd()) {
+            current++;
+            if (scanErrors != null) scanErrors.reached(tokens, current);
+        }
+    }
+
+    private boolean isAtEnd() {
+        return stopped || tokens.type(current) == EOF;
+    }
+
+    /**
+     * @param token 出错的标记下标
+     * @param message
+     * @return
+     */
+    private ParserError error(int token, String message) {
+        reporter.error(tokens.token(token), message);
+        if (reporter.full()) stopped = true;
+        return new ParserError();
+    }
+
+    /**
+     * 找到下一条语句的开头
+     */
+    private void synchronize() {
+        advance();
+        while (!isAtEnd()) {
+            if (tokens.type(current - 1) == SEMICOLON) return;
+            switch (tokens.type(current)) {
+                case CLASS:
+                case FUN:
+                case IMPORT:
+                case VAR:
+                case FOR:
+                case IF:
+                case WHILE:
+                case PRINT:
+                    return;
+            }
+            advance();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * 扁平的语法树：节点按下标存放在几个基本类型数组中，子节点、标记都用下标引用
+ * 标记留在TokenBuffer中，报错时才生成Token，整棵树只有几个数组和字面量对象
+ * 由ArenaParser生成，局部变量的深度和下标在解析时已经填好，由ArenaInterpreter执行
+ *
+ * 各类节点使用的列：
+ * LITERAL    a 字面量下标
+ * GROUPING   a 表达式
+ * UNARY      token 运算符，a 操作数
+ * BINARY     token 运算符，a 左边，b 右边
+ * VARIABLE   token 名称，a 深度（全局为-1），b 下标
+ * ASSIGN     token 名称，a 值，b 深度（全局为-1），c 下标
+ * EXPRESSION a 表达式
+ * PRINT      token print关键字，a 表达式
+ * VAR        token 名称，a 初始化表达式（没有时为-1），b 下标（全局为-1）
+ * BLOCK      a 语句列表起点，b 语句个数，c 局部变量个数
+ * IMPORT     token 路径字符串
+ */
+final class AstArena {
+    static final byte LITERAL = 0;
+    static final byte GROUPING = 1;
+    static final byte UNARY = 2;
+    static final byte BINARY = 3;
+    static final byte VARIABLE = 4;
+    static final byte ASSIGN = 5;
+    static final byte EXPRESSION = 6;
+    static final byte PRINT = 7;
+    static final byte VAR = 8;
+    static final byte BLOCK = 9;
+    static final byte IMPORT = 10;
+
+    //nil、true、false的字面量下标
+    static final int NIL_CONSTANT = 0;
+    static final int TRUE_CONSTANT = 1;
+    static final int FALSE_CONSTANT = 2;
+
+    final TokenBuffer tokens;
+    private byte[] kinds;
+    private int[] tokenIndexes;
+    private int[] as;
+    private int[] bs;
+    private int[] cs;
+    private int count = 0;
+    private Object[] constants = new Object[16];
+    private int constantCount = 0;
+    //块和顶层的语句下标连续存放在这里
+    private int[] lists = new int[16];
+    private int listSize = 0;
+    //顶层语句在lists中的范围
+    private int programStart = 0;
+    private int programCount = 0;
+
+    AstArena(TokenBuffer tokens) {
+        this.tokens = tokens;
+        //大约每两个标记一个节点
+        int capacity = Math.max(16, tokens.size() / 2);
+        kinds = new byte[capacity];
+        tokenIndexes = new int[capacity];
+        as = new int[capacity];
+        bs = new int[capacity];
+        cs = new int[capacity];
+        constant(null);
+        constant(Boolean.TRUE);
+        constant(Boolean.FALSE);
+    }
+
+    int add(byte kind, int token, int a, int b, int c) {
+        if (count == kinds.length) {
+            int capacity = count * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            tokenIndexes = Arrays.copyOf(tokenIndexes, capacity);
+            as = Arrays.copyOf(as, capacity);
+            bs = Arrays.copyOf(bs, capacity);
+            cs = Arrays.copyOf(cs, capacity);
+        }
+        kinds[count] = kind;
+        tokenIndexes[count] = token;
+        as[count] = a;
+        bs[count] = b;
+        cs[count] = c;
+        return count++;
+    }
+
+    int constant(Object value) {
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    /**
+     * 把一组语句下标连续存入列表
+     * @param statements
+     * @param from
+     * @param to
+     * @return 在列表中的起点
+     */
+    int list(int[] statements, int from, int to) {
+        int length = to - from;
+        if (listSize + length > lists.length) {
+            lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listSize + length));
+        }
+        System.arraycopy(statements, from, lists, listSize, length);
+        int start = listSize;
+        listSize += length;
+        return start;
+    }
+
+    void program(int start, int count) {
+        programStart = start;
+        programCount = count;
+    }
+
+    int size() {
+        return count;
+    }
+
+    byte kind(int node) {
+        return kinds[node];
+    }
+
+    //按节点类型命名的列访问方法
+
+    Object constant(int node) {
+        return constants[as[node]];
+    }
+
+    int expression(int node) {
+        return as[node];
+    }
+
+    int operand(int node) {
+        return as[node];
+    }
+
+    int left(int node) {
+        return as[node];
+    }
+
+    int right(int node) {
+        return bs[node];
+    }
+
+    int value(int node) {
+        return as[node];
+    }
+
+    int initializer(int node) {
+        return as[node];
+    }
+
+    /**
+     * @param node VARIABLE或ASSIGN
+     * @return 向外跳过的作用域层数，全局变量为-1
+     */
+    int depth(int node) {
+        return kinds[node] == VARIABLE ? as[node] : bs[node];
+    }
+
+    /**
+     * @param node VARIABLE、ASSIGN或VAR
+     * @return 局部变量在作用域中的下标，全局变量为-1
+     */
+    int slot(int node) {
+        switch (kinds[node]) {
+            case VARIABLE:
+            case VAR:
+                return bs[node];
+            default:
+                return cs[node];
+        }
+    }
+
+    int slotCount(int node) {
+        return cs[node];
+    }
+
+    int statementCount(int node) {
+        return bs[node];
+    }
+
+    /**
+     * @param node BLOCK
+     * @param index
+     * @return 块中第index条语句
+     */
+    int statement(int node, int index) {
+        return lists[as[node] + index];
+    }
+
+    int programCount() {
+        return programCount;
+    }
+
+    int programStatement(int index) {
+        return lists[programStart + index];
+    }
+
+    /**
+     * @param node
+     * @return 节点的标记在TokenBuffer中的下标
+     */
+    int tokenIndex(int node) {
+        return tokenIndexes[node];
+    }
+
+    TokenType operator(int node) {
+        return tokens.type(tokenIndexes[node]);
+    }
+
+    /**
+     * @param node
+     * @return 变量名，已驻留
+     */
+    String name(int node) {
+        return tokens.lexeme(tokenIndexes[node]);
+    }
+
+    Object tokenLiteral(int node) {
+        return tokens.literal(tokenIndexes[node]);
+    }
+
+    /**
+     * 生成节点的标记，只在报错时使用
+     * @param node
+     * @return
+     */
+    Token token(int node) {
+        return tokens.token(tokenIndexes[node]);
+    }
+}
@@ -0,0 +1,136 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 解析结果的磁盘缓存
+ * 以源文件内容（及解码字符集）的SHA-256为键，源文件改动后自然得到新的键
+ * 缓存文件带格式版本和校验和，读取失败时视为未命中并删除，由调用方重新解析
+ */
+class AstCache {
+    private static final int MAGIC = 0x4c4f5843;
+    //语法树结构或序列化格式改变时递增
+    private static final int FORMAT_VERSION = 4;
+    private static final String SUFFIX = ".ast";
+
+    private final Path directory;
+
+    AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 默认目录，可用系统属性jlox.cache.dir覆盖
+     * @return
+     */
+    static Path defaultDirectory() {
+        String dir = System.getProperty("jlox.cache.dir");
+        if (dir != null) return Path.of(dir);
+        return Path.of(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    /**
+     * 计算源文件内容的缓存键
+     * 调用方用同一份内容解析，键与写入的语法树总是对应同一版源文件
+     * @param content 源文件的全部字节
+     * @param charset
+     * @return 十六进制摘要
+     */
+    String key(byte[] content, Charset charset) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(content);
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 读取缓存
+     * @param key
+     * @return 未命中、版本不符或文件损坏时返回null
+     */
+    List<Stmt> load(String key) {
+        Path file = directory.resolve(key + SUFFIX);
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Stale cache entry");
+            }
+            DataInputStream body = new DataInputStream(new CheckedInputStream(in, crc));
+            List<Stmt> statements = AstSerializer.read(body);
+            if (in.readLong() != crc.getValue() || in.read() != -1) {
+                throw new IOException("Corrupt cache entry");
+            }
+            return statements;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            //缓存只是加速手段，坏掉的条目直接丢弃
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存，先写临时文件再原子替换，避免并发读到写了一半的文件
+     * 写入失败时静默放弃
+     * @param key
+     * @param statements
+     */
+    void store(String key, List<Stmt> statements) {
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, key, ".tmp");
+            CRC32 crc = new CRC32();
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                DataOutputStream out = new DataOutputStream(file);
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                DataOutputStream body = new DataOutputStream(new CheckedOutputStream(file, crc));
+                AstSerializer.write(statements, body);
+                body.flush();
+                out.writeLong(crc.getValue());
+            }
+            Files.move(temp, directory.resolve(key + SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 语法树的二进制格式
+ * 节点用一个字节的标签区分，整数用变长编码，字符串第一次出现时写入内容，之后只写编号
+ * 标记只保存类型、词素和行号，字面值按词素重新计算
+ */
+class AstSerializer {
+    //语句标签
+    private static final int BLOCK = 0;
+    private static final int EXPRESSION = 1;
+    private static final int IMPORT = 2;
+    private static final int PRINT = 3;
+    private static final int VAR = 4;
+    //表达式标签
+    private static final int ASSIGN = 0;
+    private static final int BINARY = 1;
+    private static final int GROUPING = 2;
+    private static final int LITERAL = 3;
+    private static final int UNARY = 4;
+    private static final int VARIABLE = 5;
+    private static final int NONE = 0xff;
+    //字面量标签
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private AstSerializer() {
+    }
+
+    static void write(List<Stmt> statements, DataOutputStream out) throws IOException {
+        try {
+            new Writer(out).writeStatements(statements);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static List<Stmt> read(DataInputStream in) throws IOException {
+        return new Reader(in).readStatements();
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeStatements(List<Stmt> statements) throws IOException {
+            writeVarint(statements.size());
+            for (Stmt statement : statements) {
+                statement.accept(this);
+            }
+        }
+
+        private void writeExpr(Expr expr) throws IOException {
+            if (expr == null) {
+                out.writeByte(NONE);
+                return;
+            }
+            expr.accept(this);
+        }
+
+        private void writeToken(Token token) throws IOException {
+            out.writeByte(token.type.ordinal());
+            writeString(token.lexeme);
+            writeVarint(token.line);
+            writeVarint(token.column);
+        }
+
+        private void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarint(index + 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(0);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarint(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        /**
+         * visitor接口不能抛出受检异常，这里转换为UncheckedIOException再由调用方还原
+         */
+        private interface IOAction {
+            void run() throws IOException;
+        }
+
+        private Void io(IOAction action) {
+            try {
+                action.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            return io(() -> {
+                out.writeByte(BLOCK);
+                writeToken(stmt.brace);
+                writeStatements(stmt.statements);
+            });
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            return io(() -> {
+                out.writeByte(EXPRESSION);
+                writeExpr(stmt.expression);
+            });
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            return io(() -> {
+                out.writeByte(IMPORT);
+                writeToken(stmt.keyword);
+                writeToken(stmt.path);
+            });
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            return io(() -> {
+                out.writeByte(PRINT);
+                writeToken(stmt.keyword);
+                writeExpr(stmt.expression);
+            });
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            return io(() -> {
+                out.writeByte(VAR);
+                writeToken(stmt.name);
+                writeExpr(stmt.initializer);
+            });
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            return io(() -> {
+                out.writeByte(ASSIGN);
+                writeToken(expr.name);
+                writeExpr(expr.value);
+            });
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            return io(() -> {
+                out.writeByte(BINARY);
+                writeExpr(expr.left);
+                writeToken(expr.operator);
+                writeExpr(expr.right);
+            });
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            return io(() -> {
+                out.writeByte(GROUPING);
+                writeExpr(expr.expression);
+            });
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return io(() -> {
+                out.writeByte(LITERAL);
+                Object value = expr.value;
+                if (value == null) {
+                    out.writeByte(NIL);
+                } else if (value instanceof Boolean) {
+                    out.writeByte((Boolean) value ? TRUE : FALSE);
+                } else if (value instanceof Double) {
+                    out.writeByte(NUMBER);
+                    out.writeDouble((Double) value);
+                } else {
+                    out.writeByte(STRING);
+                    writeString((String) value);
+                }
+            });
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            return io(() -> {
+                out.writeByte(UNARY);
+                writeToken(expr.operator);
+                writeExpr(expr.right);
+            });
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return io(() -> {
+                out.writeByte(VARIABLE);
+                writeToken(expr.name);
+            });
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> readStatements() throws IOException {
+            int count = readVarint();
+            List<Stmt> statements = new ArrayList<>(Math.min(count, 1 << 16));
+            for (int i = 0; i < count; i++) {
+                statements.add(readStmt());
+            }
+            return statements;
+        }
+
+        private Stmt readStmt() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case BLOCK: {
+                    Token brace = readToken();
+                    return new Stmt.Block(brace, readStatements());
+                }
+                case EXPRESSION: return new Stmt.Expression(readExpr());
+                case IMPORT: {
+                    Token keyword = readToken();
+                    return new Stmt.Import(keyword, readToken());
+                }
+                case PRINT: {
+                    Token keyword = readToken();
+                    return new Stmt.Print(keyword, readExpr());
+                }
+                case VAR: {
+                    Token name = readToken();
+                    return new Stmt.Var(name, readExpr());
+                }
+                default: throw new IOException("Bad statement tag " + tag);
+            }
+        }
+
+        private Expr readExpr() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NONE: return null;
+                case ASSIGN: {
+                    Token name = readToken();
+                    return new Expr.Assign(name, readExpr());
+                }
+                case BINARY: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Binary(left, operator, readExpr());
+                }
+                case GROUPING: return new Expr.Grouping(readExpr());
+                case LITERAL: return new Expr.Literal(readLiteral());
+                case UNARY: {
+                    Token operator = readToken();
+                    return new Expr.Unary(operator, readExpr());
+                }
+                case VARIABLE: return new Expr.Variable(readToken());
+                default: throw new IOException("Bad expression tag " + tag);
+            }
+        }
+
+        private Object readLiteral() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NIL: return null;
+                case TRUE: return true;
+                case FALSE: return false;
+                case NUMBER: return in.readDouble();
+                case STRING: return readString();
+                default: throw new IOException("Bad literal tag " + tag);
+            }
+        }
+
+        private Token readToken() throws IOException {
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= TYPES.length) throw new IOException("Bad token type " + ordinal);
+            TokenType type = TYPES[ordinal];
+            String lexeme = readString();
+            int line = readVarint();
+            int column = readVarint();
+            char[] chars = lexeme.toCharArray();
+            Object literal = Scanner.literalValue(type, chars, 0, chars.length);
+            return new Token(type, lexeme, literal, line, column);
+        }
+
+        private String readString() throws IOException {
+            int index = readVarint();
+            if (index > 0) {
+                if (index > strings.size()) throw new IOException("Bad string reference " + index);
+                return strings.get(index - 1);
+            }
+            int length = readVarint();
+            if (length < 0) throw new IOException("Bad string length " + length);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编译后的字节码块：指令数组、常量池以及每个字节对应的源码行号
+ */
+class Chunk {
+    byte[] code = new byte[256];
+    int[] lines = new int[256];
+    int count = 0;
+    //运行时需要的最大栈深度
+    int maxStack = 0;
+    private final List<Object> constants = new ArrayList<>();
+    //相同的常量只存一份
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private Object[] constantArray;
+
+    void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * 添加常量，返回常量池下标
+     * @param value
+     * @return
+     */
+    int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+        constants.add(value);
+        constantArray = null;
+        constantIndex.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    Object[] constants() {
+        if (constantArray == null) {
+            constantArray = constants.toArray();
+        }
+        return constantArray;
+    }
+}
@@ -0,0 +1,248 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 最小的class文件生成器
+ * 只生成一个类，类中只有一个不含分支的静态方法，因此不需要StackMapTable
+ */
+class ClassFileWriter {
+    //Java 8的class文件版本
+    private static final int VERSION = 52;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    //常量池最多65535项，留出余量
+    static final int MAX_CONSTANTS = 60000;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    //常量池下标从1开始
+    private int poolCount = 1;
+    //按常量种类去重
+    private final Map<String, Integer> utf8s = new HashMap<>();
+    private final Map<String, Integer> classes = new HashMap<>();
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<Long, Integer> numbers = new HashMap<>();
+    private final Map<Long, Integer> doubles = new HashMap<>();
+    private final Map<MethodRef, Integer> methods = new IdentityHashMap<>();
+
+    /**
+     * 生成代码时用到的方法，预先声明为常量，引用时按对象去重
+     */
+    static final class MethodRef {
+        final String owner;
+        final String name;
+        final String descriptor;
+        //调用后操作数栈的变化
+        final int stackEffect;
+
+        MethodRef(String owner, String name, String descriptor, boolean isStatic) {
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.stackEffect = returnSize(descriptor) - argumentSize(descriptor) - (isStatic ? 0 : 1);
+        }
+
+        private static int argumentSize(String descriptor) {
+            int size = 0;
+            int i = 1;
+            while (descriptor.charAt(i) != ')') {
+                char c = descriptor.charAt(i);
+                if (c == 'D' || c == 'J') {
+                    size += 2;
+                    i++;
+                    continue;
+                }
+                size++;
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+                i++;
+            }
+            return size;
+        }
+
+        private static int returnSize(String descriptor) {
+            char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+            if (c == 'V') return 0;
+            return c == 'D' || c == 'J' ? 2 : 1;
+        }
+    }
+
+    int constantCount() {
+        return poolCount;
+    }
+
+    /**
+     * 常量池中的字符串按修改过的UTF-8编码，长度不能超过65535字节
+     * @param value
+     * @return
+     */
+    static boolean fitsUtf8(String value) {
+        if (value.length() > 65535) return false;
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) length++;
+            else if (c <= 0x07FF) length += 2;
+            else length += 3;
+        }
+        return length <= 65535;
+    }
+
+    int utf8(String value) {
+        return entry(utf8s, value, () -> {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        }, 1);
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry(classes, internalName, () -> {
+            pool.writeByte(CONSTANT_CLASS);
+            pool.writeShort(name);
+        }, 1);
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return entry(strings, value, () -> {
+            pool.writeByte(CONSTANT_STRING);
+            pool.writeShort(utf8);
+        }, 1);
+    }
+
+    int integer(int value) {
+        return entry(numbers, (long) value << 32 | 1, () -> {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        }, 1);
+    }
+
+    /**
+     * double常量占两个常量池位置
+     * @param value
+     * @return
+     */
+    int doubleConstant(double value) {
+        //与整数常量分开存放，键不会冲突
+        return entry(doubles, Double.doubleToRawLongBits(value), () -> {
+            pool.writeByte(CONSTANT_DOUBLE);
+            pool.writeDouble(value);
+        }, 2);
+    }
+
+    int methodRef(MethodRef method) {
+        Integer index = methods.get(method);
+        if (index != null) return index;
+        int owner = classRef(method.owner);
+        int name = utf8(method.name);
+        int descriptor = utf8(method.descriptor);
+        int nameAndType = entry(() -> {
+            pool.writeByte(CONSTANT_NAME_AND_TYPE);
+            pool.writeShort(name);
+            pool.writeShort(descriptor);
+        }, 1);
+        int result = entry(() -> {
+            pool.writeByte(CONSTANT_METHODREF);
+            pool.writeShort(owner);
+            pool.writeShort(nameAndType);
+        }, 1);
+        methods.put(method, result);
+        return result;
+    }
+
+    /**
+     * 生成class文件
+     * @param className 内部名称，如com/craftinginterpreters/lox/LoxScript
+     * @param methodName
+     * @param descriptor
+     * @param code 方法的字节码
+     * @param maxStack
+     * @param maxLocals
+     * @return
+     */
+    byte[] toByteArray(String className, String methodName, String descriptor,
+                       byte[] code, int maxStack, int maxLocals) {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int name = utf8(methodName);
+        int type = utf8(descriptor);
+        int codeAttribute = utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(code.length + poolBytes.size() + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            //接口和字段
+            out.writeShort(0);
+            out.writeShort(0);
+            //唯一的方法
+            out.writeShort(1);
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            //max_stack、max_locals、code_length、code、异常表长度、属性个数
+            out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+            //类的属性
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface PoolWriter {
+        void write() throws IOException;
+    }
+
+    private <K> int entry(Map<K, Integer> entries, K key, PoolWriter writer, int size) {
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        int result = entry(writer, size);
+        entries.put(key, result);
+        return result;
+    }
+
+    private int entry(PoolWriter writer, int size) {
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int result = poolCount;
+        poolCount += size;
+        return result;
+    }
+}
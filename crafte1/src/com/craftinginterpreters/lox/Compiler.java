@@ -0,0 +1,221 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+/**
+ * 字节码编译器，把解析后的语句列表转换为扁平的字节码块
+ * 需要在Resolver之后调用，局部变量的深度和下标换算为栈中的绝对位置
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Chunk chunk = new Chunk();
+    //每层块作用域在栈中的起始位置
+    private int[] scopeBase = new int[16];
+    private int scopeCount = 0;
+    //当前已占用的局部变量个数
+    private int localCount = 0;
+    //当前栈深度
+    private int stackDepth = 0;
+    //最近一次遇到的行号，用于没有标记的节点
+    private int line = 1;
+
+    Chunk compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+        emit(OP_RETURN, 0);
+        return chunk;
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    /**
+     * 写入一条指令并记录其对栈深度的影响
+     * @param op
+     * @param stackEffect
+     */
+    private void emit(byte op, int stackEffect) {
+        chunk.write(op, line);
+        stackDepth += stackEffect;
+        if (localCount + stackDepth > chunk.maxStack) {
+            chunk.maxStack = localCount + stackDepth;
+        }
+    }
+
+    private void emit(byte op, int operand, int stackEffect) {
+        if (operand > 0xffff) {
+            throw new IllegalStateException("Too many constants or locals in one chunk.");
+        }
+        emit(op, stackEffect);
+        chunk.write(operand >> 8, line);
+        chunk.write(operand, line);
+    }
+
+    private int nameConstant(Token name) {
+        return chunk.addConstant(name.lexeme);
+    }
+
+    /**
+     * 把解析阶段的深度和下标换算为栈中的绝对位置
+     * @param depth
+     * @param slot
+     * @return
+     */
+    private int localIndex(int depth, int slot) {
+        return scopeBase[scopeCount - 1 - depth] + slot;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        //没有声明变量的块不占作用域，也不需要OP_ENTER和OP_LEAVE
+        if (stmt.slotCount == 0) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+        if (scopeCount == scopeBase.length) {
+            scopeBase = Arrays.copyOf(scopeBase, scopeCount * 2);
+        }
+        scopeBase[scopeCount++] = localCount;
+        emit(OP_ENTER, stmt.slotCount, 0);
+        localCount += stmt.slotCount;
+        if (localCount > chunk.maxStack) chunk.maxStack = localCount;
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        localCount -= stmt.slotCount;
+        emit(OP_LEAVE, stmt.slotCount, 0);
+        scopeCount--;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OP_POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        //被引入的文件在执行前已经加载，不产生指令
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OP_PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OP_NIL, 1);
+        }
+        line = stmt.name.line;
+        if (stmt.slot >= 0) {
+            emit(OP_DEFINE_LOCAL, localIndex(0, stmt.slot), -1);
+        } else {
+            emit(OP_DEFINE_GLOBAL, nameConstant(stmt.name), -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        if (expr.depth >= 0) {
+            emit(OP_SET_LOCAL, localIndex(expr.depth, expr.slot), 0);
+        } else {
+            emit(OP_SET_GLOBAL, nameConstant(expr.name), 0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        //运行时错误报告运算符所在行
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER: emit(OP_GREATER, -1); break;
+            case GREATER_EQUAL: emit(OP_GREATER_EQUAL, -1); break;
+            case LESS: emit(OP_LESS, -1); break;
+            case LESS_EQUAL: emit(OP_LESS_EQUAL, -1); break;
+            case MINUS: emit(OP_SUBTRACT, -1); break;
+            case PLUS: emit(OP_ADD, -1); break;
+            case SLASH: emit(OP_DIVIDE, -1); break;
+            case STAR: emit(OP_MULTIPLY, -1); break;
+            case BANG_EQUAL:
+                emit(OP_EQUAL, -1);
+                emit(OP_NOT, 0);
+                break;
+            case EQUAL_EQUAL: emit(OP_EQUAL, -1); break;
+            default:
+                //与解释器一致，其他运算符结果为nil
+                emit(OP_POP, -1);
+                emit(OP_POP, -1);
+                emit(OP_NIL, 1);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OP_NIL, 1);
+        } else if (Boolean.TRUE.equals(expr.value)) {
+            emit(OP_TRUE, 1);
+        } else if (Boolean.FALSE.equals(expr.value)) {
+            emit(OP_FALSE, 1);
+        } else {
+            emit(OP_CONSTANT, chunk.addConstant(expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG: emit(OP_NOT, 0); break;
+            case MINUS: emit(OP_NEGATE, 0); break;
+            default:
+                emit(OP_POP, -1);
+                emit(OP_NIL, 1);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        if (expr.depth >= 0) {
+            emit(OP_GET_LOCAL, localIndex(expr.depth, expr.slot), 1);
+        } else {
+            emit(OP_GET_GLOBAL, nameConstant(expr.name), 1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,107 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * 一条错误信息
+ * toString与命令行输出到标准错误的格式相同
+ */
+public final class Diagnostic {
+    public enum Kind {
+        //扫描、解析或加载文件时的错误，出现时不执行任何代码
+        SYNTAX,
+        //执行中的错误，之前的输出已经产生
+        RUNTIME
+    }
+
+    private final Kind kind;
+    private final String module;
+    private final int line;
+    private final int column;
+    private final String token;
+    private final String where;
+    private final String message;
+
+    private Diagnostic(Kind kind, String module, int line, int column, String token,
+                       String where, String message) {
+        this.kind = kind;
+        this.module = module;
+        this.line = line;
+        this.column = column;
+        this.token = token;
+        this.where = where;
+        this.message = message;
+    }
+
+    /**
+     * @param module 所在文件，直接执行的源码为null
+     * @param line 行号，与具体位置无关的错误（如文件无法读取）为0
+     * @param column 列号，不知道时为0
+     * @param token 出错的标记，扫描错误等没有对应标记时为null
+     * @param message
+     * @return
+     */
+    static Diagnostic syntax(String module, int line, int column, Token token, String message) {
+        String where = "";
+        if (token != null) {
+            where = token.type == TokenType.EOF ? "at end" : " at '" + token.lexeme + "'";
+        }
+        return new Diagnostic(Kind.SYNTAX, module, line, column,
+                token == null ? null : token.lexeme, where, message);
+    }
+
+    static Diagnostic runtime(String module, Token token, String message) {
+        return new Diagnostic(Kind.RUNTIME, module, token.line, token.column, token.lexeme, "", message);
+    }
+
+    /**
+     * 源码修改后行号改变的同一个错误
+     * @param line
+     * @return
+     */
+    Diagnostic withLine(int line) {
+        return new Diagnostic(kind, module, line, column, token, where, message);
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * @return 所在文件，直接执行的源码为null
+     */
+    public String module() {
+        return module;
+    }
+
+    public int line() {
+        return line;
+    }
+
+    /**
+     * @return 从1开始的列号，不知道时为0
+     */
+    public int column() {
+        return column;
+    }
+
+    /**
+     * @return 出错的标记的文本，在源码结尾处为空字符串，没有对应标记时为null
+     */
+    public String token() {
+        return token;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        if (kind == Kind.RUNTIME) {
+            return message + "\n[line " + line + "]";
+        }
+        StringBuilder text = new StringBuilder();
+        if (module != null) text.append(module).append(' ');
+        if (line > 0) text.append("[line").append(line).append(']');
+        return text.append("Error").append(where).append(':').append(message).toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把扫描和解析错误收集为Diagnostic，最多保留limit条
+ * 达到上限后扫描器和解析器停止，校验大量有错的输入时不必处理剩下的部分
+ */
+final class DiagnosticCollector implements ErrorReporter {
+    private final String module;
+    private final int limit;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    /**
+     * @param module 所在文件，直接执行的源码为null
+     * @param limit 最多保留的错误条数
+     */
+    DiagnosticCollector(String module, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The diagnostic limit must be positive.");
+        }
+        this.module = module;
+        this.limit = limit;
+    }
+
+    @Override
+    public void report(int line, int column, Token token, String message) {
+        if (diagnostics.size() < limit) {
+            diagnostics.add(Diagnostic.syntax(module, line, column, token, message));
+        }
+    }
+
+    @Override
+    public boolean full() {
+        return diagnostics.size() >= limit;
+    }
+
+    /**
+     * 加载文件时发现的其他错误，如无法读取或循环引入，不受上限限制
+     * @param diagnostic
+     */
+    void add(Diagnostic diagnostic) {
+        diagnostics.add(diagnostic);
+    }
+
+    boolean isEmpty() {
+        return diagnostics.isEmpty();
+    }
+
+    /**
+     * @return 按出现顺序排列，可以继续添加
+     */
+    List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+}
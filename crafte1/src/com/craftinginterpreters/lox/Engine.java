@@ -0,0 +1,462 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 可嵌入的Lox引擎
+ * 每个实例有自己的全局变量、输出和已加载文件，不同实例之间没有共享的可变状态，可以在任意线程中同时使用
+ * 同一实例上的调用按到达顺序依次执行，像交互模式逐行输入一样共享全局变量
+ * 错误不再输出到标准错误，而是随结果返回
+ */
+public final class Engine {
+    private final ReentrantLock lock = new ReentrantLock();
+    //执行已完成变量解析的语法树，由所选的执行方式决定，使用扁平语法树时为null
+    private final Consumer<List<Stmt>> backend;
+    //使用扁平语法树时的解释器，否则为null
+    private final ArenaInterpreter flat;
+    //剖析模式下的解释器，否则为null
+    private final ProfilingInterpreter profiler;
+    private final ModuleLoader loader;
+    private final boolean optimize;
+    //大段源码分块并行扫描
+    private final boolean parallelScan;
+    //每段源码最多收集的语法错误条数
+    private final int maxErrors;
+    //未指定输出目标时收集print的输出，随结果返回
+    private final StringWriter captured;
+
+    /**
+     * 树遍历解释器执行，print的输出随结果返回
+     */
+    public Engine() {
+        this(new Builder());
+    }
+
+    private Engine(Builder builder) {
+        PrintWriter out;
+        if (builder.output == null) {
+            captured = new StringWriter();
+            out = new PrintWriter(captured);
+        } else {
+            captured = null;
+            out = printWriter(builder.output);
+        }
+        if ((builder.bytecode ? 1 : 0) + (builder.specializing ? 1 : 0) + (builder.jvm ? 1 : 0)
+                + (builder.profiling ? 1 : 0) + (builder.flat ? 1 : 0) > 1) {
+            throw new IllegalStateException(
+                    "Choose at most one of bytecode, specializing, jvm, profiling and flat.");
+        }
+        if (builder.flat && builder.optimize) {
+            throw new IllegalStateException("The flat AST cannot be optimized.");
+        }
+        profiler = builder.profiling ? new ProfilingInterpreter(out) : null;
+        flat = builder.flat ? new ArenaInterpreter(out) : null;
+        if (builder.flat) {
+            backend = null;
+        } else if (builder.bytecode) {
+            //编译为字节码后交给虚拟机执行
+            VM vm = new VM(out);
+            backend = statements -> vm.interpret(new Compiler().compile(statements));
+        } else if (builder.profiling) {
+            backend = profiler::interpret;
+        } else if (builder.jvm) {
+            backend = new JvmInterpreter(out)::interpret;
+        } else if (builder.specializing) {
+            backend = new NodeInterpreter(out)::interpret;
+        } else {
+            backend = new Interpreter(out)::interpret;
+        }
+        loader = new ModuleLoader(new ModuleLoader.Options()
+                .cache(builder.cacheDirectory == null || builder.flat ? null : new AstCache(builder.cacheDirectory))
+                .maxErrors(builder.maxErrors)
+                .flat(builder.flat)
+                .mapped(builder.memoryMapped)
+                .whole(builder.parallelScan));
+        maxErrors = builder.maxErrors;
+        optimize = builder.optimize;
+        parallelScan = builder.parallelScan;
+        LoxMetrics.register();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 执行一段源码，import的文件相对当前目录
+     * @param source
+     * @return
+     */
+    public Result eval(String source) {
+        lock.lock();
+        LoxMetrics metrics = LoxMetrics.global();
+        metrics.executionStarted();
+        try {
+            DiagnosticCollector reporter = new DiagnosticCollector(null, maxErrors);
+            List<Diagnostic> diagnostics = reporter.diagnostics();
+            //源码已在内存中，扫描为按列存储的标记，解析时只为用到的标记创建对象
+            //扫描错误暂存，解析时再与解析错误按流式解析的顺序交错报告
+            ScanErrors scanErrors = new ScanErrors(reporter, maxErrors);
+            long started = System.nanoTime();
+            TokenBuffer tokens = parallelScan
+                    ? ParallelScanner.scan(source, scanErrors, maxErrors, ForkJoinPool.commonPool())
+                    : new Scanner(source, scanErrors).scanTokenBuffer();
+            long scanned = System.nanoTime();
+            List<Stmt> statements = null;
+            AstArena program = null;
+            if (flat != null) {
+                program = new ArenaParser(tokens, scanErrors, reporter).parse();
+            } else {
+                statements = new Parser(tokens, scanErrors, reporter).parse();
+            }
+            metrics.addScanNanos(scanned - started);
+            metrics.addParseNanos(System.nanoTime() - scanned);
+            if (diagnostics.isEmpty()) {
+                //引入的文件先于本段源码执行
+                List<Path> imports = new ArrayList<>();
+                for (Token path : ModuleLoader.importPaths(statements, program)) {
+                    imports.add(Paths.get((String) path.literal));
+                }
+                if (imports.isEmpty() || runModules(imports, diagnostics)) {
+                    if (program != null) {
+                        execute(null, program, diagnostics);
+                    } else {
+                        execute(null, statements, diagnostics);
+                    }
+                }
+            }
+            return result(diagnostics);
+        } finally {
+            metrics.executionFinished();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 并行解析给定文件及其引入的文件，没有语法错误时按依赖顺序执行
+     * 同一引擎中每个文件只成功执行一次，出错的文件下次调用时重新读取和执行
+     * @param files
+     * @return
+     */
+    public Result run(List<Path> files) {
+        lock.lock();
+        LoxMetrics.global().executionStarted();
+        try {
+            List<Diagnostic> diagnostics = new ArrayList<>();
+            runModules(files, diagnostics);
+            return result(diagnostics);
+        } finally {
+            LoxMetrics.global().executionFinished();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param roots
+     * @param diagnostics
+     * @return 全部执行完且没有错误时为true
+     */
+    private boolean runModules(List<Path> roots, List<Diagnostic> diagnostics) {
+        List<ModuleLoader.Module> modules = loader.load(roots);
+        for (ModuleLoader.Module module : modules) {
+            diagnostics.addAll(module.errors);
+        }
+        if (!diagnostics.isEmpty()) return false;
+        for (ModuleLoader.Module module : modules) {
+            boolean completed = module.program != null
+                    ? execute(module.name, module.program, diagnostics)
+                    : execute(module.name, module.statements, diagnostics);
+            if (!completed) return false;
+            loader.executed(module);
+        }
+        return true;
+    }
+
+    private boolean execute(String module, List<Stmt> statements, List<Diagnostic> diagnostics) {
+        if (optimize) {
+            statements = new Optimizer().optimize(statements);
+        }
+        //计算每个局部变量的作用域深度和下标
+        new Resolver().resolve(statements);
+        if (profiler != null) {
+            profiler.enterModule(module);
+        }
+        List<Stmt> resolved = statements;
+        return run(module, () -> backend.accept(resolved), diagnostics);
+    }
+
+    /**
+     * 扁平语法树在解析时已完成变量解析
+     * @param module
+     * @param program
+     * @param diagnostics
+     * @return
+     */
+    private boolean execute(String module, AstArena program, List<Diagnostic> diagnostics) {
+        return run(module, () -> flat.interpret(program), diagnostics);
+    }
+
+    /**
+     * @param module
+     * @param action
+     * @param diagnostics
+     * @return 没有运行时错误时为true
+     */
+    private boolean run(String module, Runnable action, List<Diagnostic> diagnostics) {
+        long started = System.nanoTime();
+        try {
+            action.run();
+            return true;
+        } catch (RuntimeError error) {
+            LoxMetrics.global().runtimeError();
+            diagnostics.add(Diagnostic.runtime(module, error.token, error.getMessage()));
+            return false;
+        } finally {
+            LoxMetrics.global().addInterpretNanos(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * 输出剖析报告：按自身耗时排序的语句和源码行
+     * @param out
+     */
+    public void writeProfileReport(Writer out) {
+        withProfiler(() -> requireProfiler().writeReport(printWriter(out)));
+    }
+
+    /**
+     * 输出火焰图工具接受的折叠栈，数值为纳秒
+     * @param out
+     */
+    public void writeCollapsedStacks(Writer out) {
+        withProfiler(() -> requireProfiler().writeCollapsedStacks(printWriter(out)));
+    }
+
+    private void withProfiler(Runnable action) {
+        lock.lock();
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ProfilingInterpreter requireProfiler() {
+        if (profiler == null) {
+            throw new IllegalStateException("Profiling is not enabled.");
+        }
+        return profiler;
+    }
+
+    private static PrintWriter printWriter(Writer out) {
+        return out instanceof PrintWriter ? (PrintWriter) out : new PrintWriter(out);
+    }
+
+    private Result result(List<Diagnostic> diagnostics) {
+        int syntaxErrors = 0;
+        for (Diagnostic diagnostic : diagnostics) {
+            if (diagnostic.kind() == Diagnostic.Kind.SYNTAX) syntaxErrors++;
+        }
+        LoxMetrics.global().addSyntaxErrors(syntaxErrors);
+        String output = "";
+        if (captured != null) {
+            output = captured.toString();
+            captured.getBuffer().setLength(0);
+        }
+        return new Result(diagnostics, output);
+    }
+
+    /**
+     * 一次执行的结果
+     */
+    public static final class Result {
+        private final List<Diagnostic> diagnostics;
+        private final String output;
+
+        private Result(List<Diagnostic> diagnostics, String output) {
+            this.diagnostics = Collections.unmodifiableList(diagnostics);
+            this.output = output;
+        }
+
+        /**
+         * @return 按出现顺序排列的错误
+         */
+        public List<Diagnostic> diagnostics() {
+            return diagnostics;
+        }
+
+        /**
+         * @return print的输出，指定了输出目标时为空字符串
+         */
+        public String output() {
+            return output;
+        }
+
+        public boolean succeeded() {
+            return diagnostics.isEmpty();
+        }
+
+        public boolean hadSyntaxError() {
+            return has(Diagnostic.Kind.SYNTAX);
+        }
+
+        public boolean hadRuntimeError() {
+            return has(Diagnostic.Kind.RUNTIME);
+        }
+
+        private boolean has(Diagnostic.Kind kind) {
+            for (Diagnostic diagnostic : diagnostics) {
+                if (diagnostic.kind() == kind) return true;
+            }
+            return false;
+        }
+    }
+
+    public static final class Builder {
+        private Writer output;
+        private boolean bytecode = false;
+        private boolean specializing = false;
+        private boolean jvm = false;
+        private boolean profiling = false;
+        private boolean flat = false;
+        private boolean memoryMapped = false;
+        private boolean parallelScan = false;
+        private boolean optimize = false;
+        private Path cacheDirectory;
+        private int maxErrors = Integer.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        /**
+         * 每段源码或每个文件最多收集的语法错误条数，达到后停止扫描和解析，默认不限
+         * @param maxErrors
+         * @return
+         */
+        public Builder maxErrors(int maxErrors) {
+            if (maxErrors < 1) {
+                throw new IllegalArgumentException("maxErrors must be positive.");
+            }
+            this.maxErrors = maxErrors;
+            return this;
+        }
+
+        /**
+         * print直接写到这里，每次执行结束时刷新，不再随结果返回
+         * @param output
+         * @return
+         */
+        public Builder output(Writer output) {
+            this.output = output;
+            return this;
+        }
+
+        /**
+         * 编译为字节码后由虚拟机执行
+         * @param bytecode
+         * @return
+         */
+        public Builder bytecode(boolean bytecode) {
+            this.bytecode = bytecode;
+            return this;
+        }
+
+        /**
+         * 转换为按操作数类型自我专门化的节点树执行
+         * @param specializing
+         * @return
+         */
+        public Builder specializing(boolean specializing) {
+            this.specializing = specializing;
+            return this;
+        }
+
+        /**
+         * 编译为JVM字节码，由HotSpot执行和即时编译
+         * bytecode、specializing、jvm、profiling、flat最多选择一个
+         * @param jvm
+         * @return
+         */
+        public Builder jvm(boolean jvm) {
+            this.jvm = jvm;
+            return this;
+        }
+
+        /**
+         * 用树遍历解释器执行并记录每条语句的执行次数和耗时
+         * @param profiling
+         * @return
+         */
+        public Builder profiling(boolean profiling) {
+            this.profiling = profiling;
+            return this;
+        }
+
+        /**
+         * 解析为按下标存储在基本类型数组中的扁平语法树并直接遍历执行，大程序的堆占用和GC压力小得多
+         * 不能与optimize同时使用，也不使用磁盘缓存
+         * @param flat
+         * @return
+         */
+        public Builder flat(boolean flat) {
+            this.flat = flat;
+            return this;
+        }
+
+        /**
+         * run加载的文件以只读方式映射到内存，直接扫描UTF-8字节，不再按平台默认编码读取和解码
+         * 只有标识符和字符串字面量在用到时解码，eval的源码不受影响
+         * @param memoryMapped
+         * @return
+         */
+        public Builder memoryMapped(boolean memoryMapped) {
+            this.memoryMapped = memoryMapped;
+            return this;
+        }
+
+        /**
+         * eval的源码和run加载的文件超过1M字符时按行分块并行扫描后拼接，run加载的文件为此整个读入内存
+         * 默认顺序扫描，文件边读边解析，内存占用小；memoryMapped的文件仍顺序扫描
+         * @param parallelScan
+         * @return
+         */
+        public Builder parallelScan(boolean parallelScan) {
+            this.parallelScan = parallelScan;
+            return this;
+        }
+
+        /**
+         * 执行前先做常量折叠等语法树优化
+         * @param optimize
+         * @return
+         */
+        public Builder optimize(boolean optimize) {
+            this.optimize = optimize;
+            return this;
+        }
+
+        /**
+         * 解析结果缓存到给定目录
+         * @param directory
+         * @return
+         */
+        public Builder cache(Path directory) {
+            this.cacheDirectory = directory;
+            return this;
+        }
+
+        public Engine build() {
+            return new Engine(this);
+        }
+    }
+}
@@ -1,72 +1,190 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
+    /**
+     * 全局变量的存储单元，变量第一次定义时创建，之后不会移除或替换
+     * 重新定义只修改值，所以访问位置缓存的单元一直有效，不需要失效处理
+     */
+    static final class Cell {
+        //单元所属的全局作用域，缓存在语法树上时用于确认仍是同一个作用域
+        final Environment owner;
+        Object value;
+
+        private Cell(Environment owner, Object value) {
+            this.owner = owner;
+            this.value = value;
+        }
+    }
 
     final Environment enclosing;
     /**
-     * key 
-     * value ֵ
+     * 全局作用域使用
+     * key 变量名称
+     * value 变量的存储单元
+     */
+    private final Map<String,Cell> values;
+    /**
+     * 局部作用域使用，下标由Resolver在解析阶段分配
+     * 复用时长度可能大于当前块的变量个数，不在使用中的下标总是null
      */
-    private final Map<String,Object> values = new HashMap<>();
+    private Object[] slots;
+    /**
+     * 直接嵌套在本作用域中的块复用的帧
+     * 没有闭包，块结束后帧不再被引用，同一层先后执行的块可以共用一个帧
+     */
+    private Environment frame;
 
     /**
-     * ȫ
+     * 用于全局作用域
      */
     Environment() {
         enclosing = null;
+        values = new HashMap<>();
+        slots = null;
     }
 
     /**
-     * ⲿڵµľֲ
-     * enclosingΪⲿvaluesΪǰ
+     * 用于外部作用域内的新的局部作用域
+     * enclosing视为外部作用域变量，slots视为当前作用域变量
      * @param enclosing
+     * @param slotCount 当前作用域声明的变量个数
      */
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int slotCount) {
         this.enclosing = enclosing;
+        values = null;
+        slots = new Object[slotCount];
+    }
+
+    /**
+     * 取得嵌套块使用的帧，第一次进入这一层时分配，之后只在变量更多时扩容
+     * @param slotCount 块中声明的变量个数
+     * @return
+     */
+    Environment enter(int slotCount) {
+        Environment inner = frame;
+        if (inner == null) {
+            inner = frame = new Environment(this, slotCount);
+        } else if (inner.slots.length < slotCount) {
+            inner.slots = new Object[slotCount];
+        }
+        return inner;
     }
 
     /**
-     * ȡֵ
+     * @return 下一次enter是否需要分配新的帧
+     */
+    boolean hasFrame() {
+        return frame != null;
+    }
+
+    /**
+     * 块结束时清空变量，帧不再持有它们的值
+     * @param slotCount
+     */
+    void leave(int slotCount) {
+        Arrays.fill(slots, 0, slotCount, null);
+    }
+
+    /**
+     * 获取全局变量值
      * @param name
      * @return
      */
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        return cell(name).value;
+    }
+
+    /**
+     * 取得全局变量的存储单元，供访问位置缓存
+     * @param name
+     * @return
+     */
+    Cell cell(Token name) {
+        //词素已经驻留，键的哈希值已缓存，equals先比较引用
+        Cell cell = values.get(name.lexeme);
+        if (cell == null) {
+            throw new RuntimeError(name,
+                    "Undefined variable '" + name.lexeme+"'.");
         }
-        //ǰûҵǰһifΧѰ ֱ
-        if (enclosing != null) return enclosing.get(name);
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme+"'.");
+        return cell;
     }
 
     /**
-     * ֵڴڱ¶иֵ
+     * @param name 已驻留的变量名
+     * @return 变量的存储单元，不存在时为null
+     */
+    Cell findCell(String name) {
+        return values.get(name);
+    }
+
+    /**
+     * 全局变量赋值，仅限于存在变量的情况下对其进行赋值
      * @param name
      * @param value
      */
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-        throw new RuntimeError(name, "Undefined variable '"  + name.lexeme +"'.");
+        cell(name).value = value;
     }
 
     /**
-     *  ¶壬µĸԭе
+     * 定义全局变量 可以重新定义，新的覆盖原有的
      * @param name
      * @param value
      */
     void define(String name, Object value) {
-        values.put(name,value);
+        //已有的单元原地更新，缓存了它的访问位置不受影响
+        Cell cell = values.get(name);
+        if (cell != null) {
+            cell.value = value;
+        } else {
+            values.put(name, new Cell(this, value));
+        }
+    }
+
+    /**
+     * 按解析阶段得到的深度和下标读取局部变量
+     * @param depth 向外跳过的作用域层数
+     * @param slot
+     * @return
+     */
+    Object getAt(int depth, int slot) {
+        return ancestor(depth).slots[slot];
+    }
+
+    /**
+     * 按解析阶段得到的深度和下标给局部变量赋值
+     * @param depth
+     * @param slot
+     * @param value
+     */
+    void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    /**
+     * 在当前作用域定义局部变量
+     * @param slot
+     * @param value
+     */
+    void defineAt(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    /**
+     * 沿enclosing链向外走depth层
+     * @param depth
+     * @return
+     */
+    Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
+        }
+        return environment;
     }
 
 }
@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * 扫描和解析阶段的错误接收方
+ * 命令行直接输出到标准错误，多文件加载时每个文件单独收集
+ */
+interface ErrorReporter {
+    /**
+     * @param line
+     * @param column 从1开始，不知道时为0
+     * @param token 出错的标记，扫描错误为null
+     * @param message
+     */
+    void report(int line, int column, Token token, String message);
+
+    /**
+     * 不再接收错误时为true，扫描器和解析器随即停止
+     * @return
+     */
+    default boolean full() {
+        return false;
+    }
+
+    default void error(int line, int column, String message) {
+        report(line, column, null, message);
+    }
+
+    default void error(Token token, String message) {
+        report(token.line, token.column, token, message);
+    }
+}
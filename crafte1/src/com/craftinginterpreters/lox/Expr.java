@@ -14,6 +14,9 @@ abstract class Expr{
  static class Assign extends Expr {
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
+    Environment.Cell cell = null;
     Assign(Token name, Expr value){
       this.name = name;
       this.value = value;
@@ -29,6 +32,7 @@ abstract class Expr{
     final Expr left;
     final Token operator;
     final Expr right;
+    byte numeric = 0;
     Binary(Expr left,Token operator,Expr right){
       this.left = left;
       this.operator = operator;
@@ -81,6 +85,9 @@ abstract class Expr{
  }
  static class Variable extends Expr {
     final Token name;
+    int depth = -1;
+    int slot = -1;
+    Environment.Cell cell = null;
     Variable(Token name){
       this.name = name;
     }
@@ -0,0 +1,348 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 增量解析，供编辑器在每次修改后重新检查源码
+ * 源码按顶层声明切分为段，每段从上一条声明的最后一个标记之后开始，到本条声明的最后一个标记结束，
+ * 最后一段只有结尾的空白和注释。修改后从受影响的段开始重新扫描和解析，
+ * 一旦新的声明边界与修改位置之后的旧边界重合，且边界所在行的剩余部分没有标记，后面的段原样保留
+ * 段只记录长度和行数，不记录绝对位置，修改时不需要调整后面的段；
+ * 保留的段行号变化后，语法树和错误在statements中才按新行号重建
+ */
+class IncrementalParser {
+    private char[] source;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private static class Segment {
+        //包括前面的空白和注释
+        final int length;
+        //段内换行符个数
+        final int lines;
+        //最后一段没有声明
+        final boolean declaration;
+        //有语法错误时为null，与Parser.parse的结果一致
+        Stmt statement;
+        List<Diagnostic> errors;
+        //statement和errors中的行号以此为段的起始行
+        int line;
+
+        Segment(int length, int lines, boolean declaration, Stmt statement,
+                List<Diagnostic> errors, int line) {
+            this.length = length;
+            this.lines = lines;
+            this.declaration = declaration;
+            this.statement = statement;
+            this.errors = errors;
+            this.line = line;
+        }
+    }
+
+    IncrementalParser(String source) {
+        this.source = source.toCharArray();
+        parseFrom(0, 0, 1, this.source.length, 0);
+    }
+
+    /**
+     * 用inserted替换从offset开始的removed个字符
+     * @param offset
+     * @param removed
+     * @param inserted
+     */
+    void edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > source.length) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed
+                    + " is outside the source of length " + source.length + ".");
+        }
+        int delta = inserted.length() - removed;
+        char[] edited = new char[source.length + delta];
+        System.arraycopy(source, 0, edited, 0, offset);
+        inserted.getChars(0, inserted.length(), edited, offset);
+        System.arraycopy(source, offset + removed, edited, offset + inserted.length(),
+                source.length - offset - removed);
+
+        //修改位置前一个字符所在的段也要重新扫描，插入的文本可能与它的最后一个标记连在一起
+        int anchor = Math.max(offset - 1, 0);
+        int index = 0;
+        int start = 0;
+        int line = 1;
+        while (index < segments.size() - 1 && start + segments.get(index).length <= anchor) {
+            Segment segment = segments.get(index);
+            start += segment.length;
+            line += segment.lines;
+            index++;
+        }
+        //结尾的扫描错误记在最后一条声明中
+        if (index > 0 && index == segments.size() - 1) {
+            index--;
+            Segment segment = segments.get(index);
+            start -= segment.length;
+            line -= segment.lines;
+        }
+        //有语法错误的段，错误信息可能引用了下一段的第一个标记
+        if (index > 0 && !segments.get(index - 1).errors.isEmpty()) {
+            index--;
+            Segment segment = segments.get(index);
+            start -= segment.length;
+            line -= segment.lines;
+        }
+        source = edited;
+        parseFrom(index, start, line, offset + inserted.length(), delta);
+    }
+
+    /**
+     * 从第index段重新扫描和解析，直到越过editEnd后回到旧的段边界，或到达结尾
+     * @param index
+     * @param start 第index段在新源码中的位置，与旧源码相同
+     * @param line
+     * @param editEnd 新源码中修改部分的结束位置
+     * @param delta 新源码比旧源码多出的字符数
+     */
+    private void parseFrom(int index, int start, int line, int editEnd, int delta) {
+        List<Diagnostic> errors = new ArrayList<>();
+        RegionSource tokens = new RegionSource(source, start, line, errors);
+        Parser parser = new Parser(tokens, (errorLine, column, token, message) ->
+                errors.add(Diagnostic.syntax(null, errorLine, column, token, message)));
+        List<Segment> parsed = new ArrayList<>();
+        //与新边界对应的旧段
+        int oldIndex = index;
+        int oldStart = start;
+        int segmentStart = start;
+        while (!parser.atEnd()) {
+            Stmt statement = parser.nextDeclaration();
+            int end = tokens.consumedEnd;
+            parsed.add(new Segment(end - segmentStart, countLines(segmentStart, end), true,
+                    statement, tokens.takeErrors(parser.atEnd()), line));
+            line += parsed.get(parsed.size() - 1).lines;
+            segmentStart = end;
+            //已到结尾时下一个标记是EOF，结尾的扫描错误已经记在这条声明中，不能再保留旧的最后一段
+            if (end < editEnd || parser.atEnd()) continue;
+
+            int oldEnd = end - delta;
+            while (oldIndex < segments.size() && oldStart < oldEnd) {
+                oldStart += segments.get(oldIndex).length;
+                oldIndex++;
+            }
+            //同一行中后面标记的列号会随修改变化，必须重新解析
+            if (oldStart == oldEnd && oldIndex < segments.size() && restOfLineBlank(end)) {
+                replace(index, oldIndex, parsed);
+                return;
+            }
+        }
+        //结尾的空白、注释和扫描错误
+        parsed.add(new Segment(source.length - segmentStart, countLines(segmentStart, source.length),
+                false, null, tokens.takeErrors(true), line));
+        replace(index, segments.size(), parsed);
+    }
+
+    private void replace(int from, int to, List<Segment> parsed) {
+        segments.subList(from, to).clear();
+        segments.addAll(from, parsed);
+    }
+
+    /**
+     * @param from
+     * @return from到行尾只有空白或注释
+     */
+    private boolean restOfLineBlank(int from) {
+        for (int i = from; i < source.length; i++) {
+            switch (source[i]) {
+                case '\n':
+                    return true;
+                case ' ':
+                case '\r':
+                case '\t':
+                    break;
+                case '/':
+                    return i + 1 < source.length && source[i + 1] == '/';
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private int countLines(int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (source[i] == '\n') lines++;
+        }
+        return lines;
+    }
+
+    String source() {
+        return new String(source);
+    }
+
+    /**
+     * @return 与对当前源码调用Parser.parse得到的语句相同
+     */
+    List<Stmt> statements() {
+        List<Stmt> statements = new ArrayList<>();
+        int line = 1;
+        for (Segment segment : segments) {
+            if (segment.line != line) {
+                int shift = line - segment.line;
+                if (segment.statement != null) {
+                    segment.statement = segment.statement.accept(new LineShifter(shift));
+                }
+                segment.errors = shift(segment.errors, shift);
+                segment.line = line;
+            }
+            if (segment.declaration) statements.add(segment.statement);
+            line += segment.lines;
+        }
+        return statements;
+    }
+
+    /**
+     * @return 按出现顺序排列的语法错误，与对当前源码完整解析时相同
+     */
+    List<Diagnostic> diagnostics() {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        int line = 1;
+        for (Segment segment : segments) {
+            diagnostics.addAll(shift(segment.errors, line - segment.line));
+            line += segment.lines;
+        }
+        return diagnostics;
+    }
+
+    private static List<Diagnostic> shift(List<Diagnostic> errors, int shift) {
+        if (shift == 0 || errors.isEmpty()) return errors;
+        List<Diagnostic> shifted = new ArrayList<>(errors.size());
+        for (Diagnostic error : errors) {
+            shifted.add(error.withLine(error.line() + shift));
+        }
+        return shifted;
+    }
+
+    /**
+     * 从源码中间开始扫描，记录已消费的最后一个标记的结束位置
+     * 解析器只比已消费的标记多读入一个标记，读入它时的扫描错误属于下一段
+     */
+    private static class RegionSource implements TokenSource {
+        private final Scanner scanner;
+        private final List<Diagnostic> errors;
+        //最近读入的标记的结束位置，即解析器的下一个标记
+        private int lookaheadEnd;
+        //解析器已消费的最后一个标记的结束位置
+        int consumedEnd;
+        //读入下一个标记之前已有的错误个数
+        private int lookaheadErrors;
+
+        RegionSource(char[] source, int start, int line, List<Diagnostic> errors) {
+            this.errors = errors;
+            this.scanner = new Scanner(source, start, line, (errorLine, column, token, message) ->
+                    errors.add(Diagnostic.syntax(null, errorLine, column, token, message)));
+            this.lookaheadEnd = start;
+            this.consumedEnd = start;
+        }
+
+        @Override
+        public Token nextToken() {
+            consumedEnd = lookaheadEnd;
+            lookaheadErrors = errors.size();
+            Token token = scanner.nextToken();
+            lookaheadEnd = scanner.offset();
+            return token;
+        }
+
+        /**
+         * 取出当前段的错误，读入下一个标记时的扫描错误留给下一段
+         * 下一个标记是EOF时解析器可能在读入它之后才报告错误，此时全部取出，保持与完整解析相同的顺序
+         * @param all
+         * @return
+         */
+        List<Diagnostic> takeErrors(boolean all) {
+            int count = all ? errors.size() : lookaheadErrors;
+            List<Diagnostic> taken = new ArrayList<>(errors.subList(0, count));
+            errors.subList(0, count).clear();
+            lookaheadErrors -= Math.min(count, lookaheadErrors);
+            return taken;
+        }
+    }
+
+    /**
+     * 复制语法树，所有标记的行号加上shift
+     */
+    private static class LineShifter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+        private final int shift;
+
+        LineShifter(int shift) {
+            this.shift = shift;
+        }
+
+        private Token token(Token token) {
+            return new Token(token.type, token.lexeme, token.literal, token.line + shift, token.column);
+        }
+
+        private Expr copy(Expr expr) {
+            return expr == null ? null : expr.accept(this);
+        }
+
+        private Stmt copy(Stmt stmt) {
+            return stmt == null ? null : stmt.accept(this);
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            return new Expr.Assign(token(expr.name), copy(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            return new Expr.Binary(copy(expr.left), token(expr.operator), copy(expr.right));
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(copy(expr.expression));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            return new Expr.Unary(token(expr.operator), copy(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            return new Expr.Variable(token(expr.name));
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt) {
+            List<Stmt> statements = new ArrayList<>(stmt.statements.size());
+            for (Stmt statement : stmt.statements) {
+                statements.add(copy(statement));
+            }
+            return new Stmt.Block(token(stmt.brace), statements);
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+            return new Stmt.Expression(copy(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitImportStmt(Stmt.Import stmt) {
+            return new Stmt.Import(token(stmt.keyword), token(stmt.path));
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt) {
+            return new Stmt.Print(token(stmt.keyword), copy(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt) {
+            return new Stmt.Var(token(stmt.name), copy(stmt.initializer));
+        }
+    }
+}
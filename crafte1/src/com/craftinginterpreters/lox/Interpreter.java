@@ -1,5 +1,8 @@
 package com.craftinginterpreters.lox;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.List;
 
 /**
@@ -7,11 +10,64 @@ import java.util.List;
  */
 class Interpreter implements Expr.Visitor<Object>,
         Stmt.Visitor<Void> {
+    //Expr.Binary.numeric的取值
+    private static final byte NUMERIC_UNKNOWN = 0;
+    private static final byte NUMERIC_YES = 1;
+    private static final byte NUMERIC_NO = 2;
 
-    private Environment environment = new Environment();
+    //标准输出缓冲区大小，写满后自动刷新
+    static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    //全局作用域
+    final Environment globals;
+    private Environment environment;
+    //print语句的输出目标
+    private final PrintWriter out;
+    //运行指标，执行中只累加普通字段，interpret结束时一次性交给LoxMetrics
+    private long statements;
+    private long expressions;
+    private long lookups;
+    private long depthWalked;
+    private long environments;
+
+    /**
+     * 输出到带缓冲的标准输出
+     */
+    Interpreter() {
+        this(standardOutput());
+    }
+
+    /**
+     * 输出到指定的目标，如嵌入时用StringWriter收集输出
+     * @param out
+     */
+    Interpreter(PrintWriter out) {
+        this(out, new Environment());
+    }
+
+    /**
+     * 与其他执行方式共用全局作用域
+     * @param out
+     * @param globals
+     */
+    Interpreter(PrintWriter out, Environment globals) {
+        this.out = out;
+        this.globals = globals;
+        this.environment = globals;
+    }
+
+    /**
+     * 带缓冲的标准输出，不会每次print都加锁和刷新
+     * @return
+     */
+    static PrintWriter standardOutput() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), OUTPUT_BUFFER_SIZE), false);
+    }
 
     /**
      * 供外部调用接口，目的是为了调用核心的visit方法
+     * 执行结束或出现运行时错误时刷新输出，运行时错误交给调用方报告，保证错误信息出现在已有输出之后
      * @param statements
      */
     void interpret(List<Stmt> statements) {
@@ -19,54 +75,76 @@ class Interpreter implements Expr.Visitor<Object>,
             for (Stmt statement : statements) {
                 execute(statement);
             }
-        } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+        } finally {
+            out.flush();
+            flushMetrics();
         }
     }
 
+    private void flushMetrics() {
+        LoxMetrics.global().addExecution(statements, expressions, lookups, depthWalked, environments);
+        statements = 0;
+        expressions = 0;
+        lookups = 0;
+        depthWalked = 0;
+        environments = 0;
+    }
+
+    /**
+     * 立即刷新缓冲的输出
+     */
+    void flush() {
+        out.flush();
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        lookups++;
+        if (expr.depth >= 0) {
+            depthWalked += expr.depth;
+            environment.assignAt(expr.depth, expr.slot, value);
+        } else {
+            Environment.Cell cell = expr.cell;
+            if (cell == null || cell.owner != globals) {
+                cell = expr.cell = globals.cell(expr.name);
+            }
+            cell.value = value;
+        }
         return value;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
         switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                //算术运算全程使用double，只在结果离开表达式时装箱一次
+                return evaluateNumber(expr);
             case GREATER:
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left > (double) right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left >= (double) right;
             case LESS:
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left < (double) right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left <= (double) right;
-            case MINUS:
-                checkNumberOperand(expr.operator,right);
-                return (double)left - (double) right;
+                return evaluateNumber(expr) != 0;
+            case PLUS:
+                if (isNumeric(expr)) return evaluateNumber(expr);
+                break;
+        }
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        switch (expr.operator.type) {
             case PLUS:
                 if (left instanceof  Double && right instanceof Double) {
                     return (double)left + (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
+                if (Rope.isString(left) && Rope.isString(right)) {
                     //那如果是左边string右边数字呢，或者相反
-                    return (String)left + (String)right;
+                    //不复制已有的字符，输出或比较时才展开
+                    return Rope.concat(left, right);
                 }
                 throw new RuntimeError(expr.operator,
                         "Operands must two numbers or two strings.");
-            case SLASH:
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left / (double) right;
-            case STAR:
-                checkNumberOperands(expr.operator,left,right);
-                return (double)left * (double) right;
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
@@ -93,13 +171,12 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
         switch (expr.operator.type) {
             case BANG:
                 //取反
-                return !isTruthy(right);
+                return !isTruthy(evaluate(expr.right));
             case MINUS:
-                return -(double)right;
+                return -numberOperand(expr.operator, expr.right);
         }
         //其他情况返回空
         return null;
@@ -112,36 +189,145 @@ class Interpreter implements Expr.Visitor<Object>,
      */
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        //局部变量直接按解析阶段得到的深度和下标读取
+        lookups++;
+        if (expr.depth >= 0) {
+            depthWalked += expr.depth;
+            return environment.getAt(expr.depth, expr.slot);
+        }
+        //全局变量的单元缓存在节点上，语法树换到另一个全局作用域执行时重新查找
+        Environment.Cell cell = expr.cell;
+        if (cell == null || cell.owner != globals) {
+            cell = expr.cell = globals.cell(expr.name);
+        }
+        return cell.value;
     }
 
     /**
-     * 检查数据是否满足条件，不满足抛出异常
+     * 判断表达式的结果是否一定是数字（否则就是运行时错误），这类表达式可以不装箱求值
+     * 减、乘、除、取负一定得到数字；加法只有两边都是数字时才是数字，结果缓存在节点上
+     * @param expr
+     * @return
+     */
+    private static boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            if (binary.numeric == NUMERIC_UNKNOWN) {
+                binary.numeric = computeNumeric(binary) ? NUMERIC_YES : NUMERIC_NO;
+            }
+            return binary.numeric == NUMERIC_YES;
+        }
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).value instanceof Double;
+        }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isNumeric(((Expr.Grouping) expr).expression);
+        }
+        return false;
+    }
+
+    private static boolean computeNumeric(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                return true;
+            case PLUS:
+                return isNumeric(expr.left) && isNumeric(expr.right);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 以double求值，调用前需保证isNumeric(expr)为true
+     * @param expr
+     * @return
+     */
+    private double evaluateNumber(Expr expr) {
+        expressions++;
+        if (expr instanceof Expr.Binary) {
+            return evaluateNumber((Expr.Binary) expr);
+        }
+        if (expr instanceof Expr.Literal) {
+            return (double) ((Expr.Literal) expr).value;
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return -numberOperand(unary.operator, unary.right);
+        }
+        return evaluateNumber(((Expr.Grouping) expr).expression);
+    }
+
+    /**
+     * 数字运算的二元表达式，比较运算结果为1或0
+     * 与装箱求值的顺序一致：先求出两边的值，再检查类型
+     * @param expr
+     * @return
+     */
+    private double evaluateNumber(Expr.Binary expr) {
+        boolean leftNumeric = isNumeric(expr.left);
+        boolean rightNumeric = isNumeric(expr.right);
+        double left = 0;
+        double right = 0;
+        Object leftValue = null;
+        Object rightValue = null;
+        if (leftNumeric) left = evaluateNumber(expr.left);
+        else leftValue = evaluate(expr.left);
+        if (rightNumeric) right = evaluateNumber(expr.right);
+        else rightValue = evaluate(expr.right);
+        if ((!leftNumeric && !(leftValue instanceof Double))
+                || (!rightNumeric && !(rightValue instanceof Double))) {
+            throw new RuntimeError(expr.operator, "Operands must be numbers.");
+        }
+        if (!leftNumeric) left = (double) leftValue;
+        if (!rightNumeric) right = (double) rightValue;
+        switch (expr.operator.type) {
+            case MINUS: return left - right;
+            case SLASH: return left / right;
+            case STAR: return left * right;
+            case PLUS: return left + right;
+            case GREATER: return left > right ? 1 : 0;
+            case GREATER_EQUAL: return left >= right ? 1 : 0;
+            case LESS: return left < right ? 1 : 0;
+            case LESS_EQUAL: return left <= right ? 1 : 0;
+        }
+        throw new IllegalStateException("Not a numeric operator: " + expr.operator.type);
+    }
+
+    /**
+     * 求值一元取负的操作数
      * @param operator
      * @param operand
+     * @return
      */
-    private void checkNumberOperand(Token operator,Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator,"Operand must be a number");
+    private double numberOperand(Token operator, Expr operand) {
+        if (isNumeric(operand)) return evaluateNumber(operand);
+        Object value = evaluate(operand);
+        checkNumberOperand(operator, value);
+        return (double) value;
     }
 
     /**
      * 检查数据是否满足条件，不满足抛出异常
      * @param operator
-     * @param left
-     * @param right
+     * @param operand
      */
-    private void checkNumberOperands(Token operator,Object left,Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator,"Operands must be numbers.");
+    private void checkNumberOperand(Token operator,Object operand) {
+        if (operand instanceof Double) return;
+        throw new RuntimeError(operator,"Operand must be a number");
     }
+
     /**
      * 逻辑运算
      * false和nil为假，其余为真
      * @param object
      * @return
      */
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return  false;
         //false或true
         if (object instanceof Boolean) return (boolean)object;
@@ -154,9 +340,11 @@ class Interpreter implements Expr.Visitor<Object>,
      * @param b
      * @return
      */
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
+        //拼接出的字符串与内容相同的String相等
+        if (b instanceof Rope) return b.equals(a);
         return a.equals(b);
     }
 
@@ -165,26 +353,37 @@ class Interpreter implements Expr.Visitor<Object>,
      * @param object
      * @return
      */
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         //为空的情况下返回nil
         if (object == null) return "nil";
         if (object instanceof Double) {
-            String text = object.toString();
-            //整数的情况下返回整数
-            if (text.endsWith(".0")) {
-                text = text.substring(0,text.length()-2);
-            }
-            return text;
+            return stringify((double) object);
         }
         return object.toString();
     }
 
+    static String stringify(double number) {
+        String text = Double.toString(number);
+        //整数的情况下返回整数
+        if (text.endsWith(".0")) {
+            text = text.substring(0,text.length()-2);
+        }
+        return text;
+    }
+
     private Object evaluate(Expr expr) {
         //括号内是什么类型的Expr就调用什么visit方法
+        expressions++;
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
+    /**
+     * 执行一条语句，ProfilingInterpreter覆盖此方法计时
+     * 不开启剖析时没有子类被加载，JIT可以直接内联
+     * @param stmt
+     */
+    void execute(Stmt stmt) {
+        statements++;
         stmt.accept(this);
     }
 
@@ -198,25 +397,56 @@ class Interpreter implements Expr.Visitor<Object>,
                 execute(statement);
             }
         } finally {
-            this.environment = environment;
+            this.environment = previous;
         }
     }
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        //没有声明变量的块不建立作用域，Resolver计算深度时也跳过了它
+        if (stmt.slotCount == 0) {
+            for (Stmt statement : stmt.statements) {
+                execute(statement);
+            }
+            return null;
+        }
+        if (!environment.hasFrame()) environments++;
+        Environment frame = environment.enter(stmt.slotCount);
+        try {
+            executeBlock(stmt.statements, frame);
+        } finally {
+            frame.leave(stmt.slotCount);
+        }
         return null;
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (isNumeric(stmt.expression)) {
+            evaluateNumber(stmt.expression);
+            return null;
+        }
         evaluate(stmt.expression);
         return null;
     }
 
+    /**
+     * 被引入的文件已由ModuleLoader按依赖顺序先执行
+     * @param stmt
+     * @return
+     */
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
+        if (isNumeric(stmt.expression)) {
+            out.println(stringify(evaluateNumber(stmt.expression)));
+            return null;
+        }
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -227,7 +457,11 @@ class Interpreter implements Expr.Visitor<Object>,
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        if (stmt.slot >= 0) {
+            environment.defineAt(stmt.slot, value);
+        } else {
+            globals.define(stmt.name.lexeme, value);
+        }
         return null;
     }
 }
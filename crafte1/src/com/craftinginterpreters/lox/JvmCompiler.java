@@ -0,0 +1,673 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把完成变量解析的语法树编译为JVM字节码
+ * 每个类只有一个静态方法 static void run(Environment globals, PrintWriter out, Object[] constants)，
+ * 顶层语句按顺序分到若干个类中，交给HotSpot像普通Java代码一样解释和即时编译
+ *
+ * 局部变量放在JVM局部变量中，所有赋值都一定是数字的局部变量使用double类型，
+ * 两边在编译时已知是数字的算术运算直接生成dadd等指令，其余情况调用JvmRuntime检查类型，
+ * 生成的代码不含分支，因此不需要StackMapTable
+ */
+class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final String CLASS_NAME = "com/craftinginterpreters/lox/LoxScript";
+    static final String METHOD_NAME = "run";
+    static final String METHOD_DESCRIPTOR =
+            "(Lcom/craftinginterpreters/lox/Environment;Ljava/io/PrintWriter;[Ljava/lang/Object;)V";
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String ENVIRONMENT = "com/craftinginterpreters/lox/Environment";
+    private static final String TOKEN = "com/craftinginterpreters/lox/Token";
+    private static final String RUNTIME = "com/craftinginterpreters/lox/JvmRuntime";
+    private static final String INTERPRETER = "com/craftinginterpreters/lox/Interpreter";
+
+    //生成的代码调用的方法
+    private static final ClassFileWriter.MethodRef DOUBLE_VALUE_OF = new ClassFileWriter.MethodRef(
+            "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", true);
+    private static final ClassFileWriter.MethodRef BOOLEAN_VALUE_OF = new ClassFileWriter.MethodRef(
+            "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", true);
+    private static final ClassFileWriter.MethodRef GET = new ClassFileWriter.MethodRef(
+            ENVIRONMENT, "get", "(L" + TOKEN + ";)L" + OBJECT + ";", false);
+    private static final ClassFileWriter.MethodRef ASSIGN = new ClassFileWriter.MethodRef(
+            ENVIRONMENT, "assign", "(L" + TOKEN + ";L" + OBJECT + ";)V", false);
+    private static final ClassFileWriter.MethodRef DEFINE = new ClassFileWriter.MethodRef(
+            ENVIRONMENT, "define", "(Ljava/lang/String;L" + OBJECT + ";)V", false);
+    private static final ClassFileWriter.MethodRef STRINGIFY_NUMBER = new ClassFileWriter.MethodRef(
+            INTERPRETER, "stringify", "(D)Ljava/lang/String;", true);
+    private static final ClassFileWriter.MethodRef STRINGIFY = new ClassFileWriter.MethodRef(
+            INTERPRETER, "stringify", "(L" + OBJECT + ";)Ljava/lang/String;", true);
+    private static final ClassFileWriter.MethodRef PRINTLN = new ClassFileWriter.MethodRef(
+            "java/io/PrintWriter", "println", "(Ljava/lang/String;)V", false);
+    private static final ClassFileWriter.MethodRef NEGATE = runtime("negate", "(L" + OBJECT + ";L" + TOKEN + ";)D");
+    private static final ClassFileWriter.MethodRef NOT = runtime("not", "(L" + OBJECT + ";)Ljava/lang/Boolean;");
+    private static final ClassFileWriter.MethodRef ADD = checked("add", "L" + OBJECT + ";");
+    private static final ClassFileWriter.MethodRef SUBTRACT = checked("subtract", "D");
+    private static final ClassFileWriter.MethodRef MULTIPLY = checked("multiply", "D");
+    private static final ClassFileWriter.MethodRef DIVIDE = checked("divide", "D");
+    private static final ClassFileWriter.MethodRef GREATER = checked("greater", "Ljava/lang/Boolean;");
+    private static final ClassFileWriter.MethodRef GREATER_EQUAL = checked("greaterEqual", "Ljava/lang/Boolean;");
+    private static final ClassFileWriter.MethodRef LESS = checked("less", "Ljava/lang/Boolean;");
+    private static final ClassFileWriter.MethodRef LESS_EQUAL = checked("lessEqual", "Ljava/lang/Boolean;");
+    private static final ClassFileWriter.MethodRef GREATER_NUMBERS = numbers("greater");
+    private static final ClassFileWriter.MethodRef GREATER_EQUAL_NUMBERS = numbers("greaterEqual");
+    private static final ClassFileWriter.MethodRef LESS_NUMBERS = numbers("less");
+    private static final ClassFileWriter.MethodRef LESS_EQUAL_NUMBERS = numbers("lessEqual");
+    private static final ClassFileWriter.MethodRef EQUAL_NUMBERS = numbers("equal");
+    private static final ClassFileWriter.MethodRef NOT_EQUAL_NUMBERS = numbers("notEqual");
+    private static final ClassFileWriter.MethodRef EQUAL = runtime("equal",
+            "(L" + OBJECT + ";L" + OBJECT + ";)Ljava/lang/Boolean;");
+    private static final ClassFileWriter.MethodRef NOT_EQUAL = runtime("notEqual",
+            "(L" + OBJECT + ";L" + OBJECT + ";)Ljava/lang/Boolean;");
+
+    //run方法的参数，Lox的局部变量从FIRST_LOCAL开始
+    private static final int GLOBALS = 0;
+    private static final int OUT = 1;
+    private static final int CONSTANTS = 2;
+    private static final int FIRST_LOCAL = 3;
+
+    //超过这个长度就开始新的类，HotSpot默认不即时编译超过8000字节的方法
+    private static final int SOFT_CODE_LIMIT = 8000;
+    //JVM方法字节码长度上限
+    private static final int MAX_CODE = 65535;
+
+    //用到的指令
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int AALOAD = 0x32;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int POP = 0x57;
+    private static final int POP2 = 0x58;
+    private static final int DUP = 0x59;
+    private static final int DUP_X2 = 0x5b;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DNEG = 0x77;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+
+    /**
+     * 按顺序执行的一段代码：生成的类，或者放不进一个方法、由树遍历解释器执行的语句
+     */
+    static final class Unit {
+        final byte[] classFile;
+        //run方法的第三个参数，存放Token和过长的字符串
+        final Object[] constants;
+        final Stmt statement;
+
+        private Unit(byte[] classFile, Object[] constants, Stmt statement) {
+            this.classFile = classFile;
+            this.constants = constants;
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * 一个块作用域，object[i]为true时第i个变量存为Object，否则存为double
+     */
+    private static final class Scope {
+        final boolean[] object;
+        final int[] index;
+
+        Scope(boolean[] object, int[] index) {
+            this.object = object;
+            this.index = index;
+        }
+    }
+
+    //每个块中各变量是否需要存为Object，由analyze计算
+    private final Map<Stmt.Block, boolean[]> objectSlots = new IdentityHashMap<>();
+    private final List<Scope> scopes = new ArrayList<>();
+    private boolean changed;
+
+    //正在生成的类
+    private ClassFileWriter writer;
+    private List<Object> constants;
+    private byte[] code;
+    private int length;
+    private int stack;
+    private int maxStack;
+    private int nextLocal;
+    private int maxLocals;
+
+    private static ClassFileWriter.MethodRef runtime(String name, String descriptor) {
+        return new ClassFileWriter.MethodRef(RUNTIME, name, descriptor, true);
+    }
+
+    /**
+     * 两边都是Object、需要检查类型的运算
+     */
+    private static ClassFileWriter.MethodRef checked(String name, String returnType) {
+        return runtime(name, "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";)" + returnType);
+    }
+
+    /**
+     * 两边都是double、结果装箱为Boolean的比较
+     */
+    private static ClassFileWriter.MethodRef numbers(String name) {
+        return runtime(name, "(DD)Ljava/lang/Boolean;");
+    }
+
+    /**
+     * @param statements 已经由Resolver解析过
+     * @return 按顺序执行的代码段
+     */
+    List<Unit> compile(List<Stmt> statements) {
+        analyze(statements);
+        List<Unit> units = new ArrayList<>();
+        //当前类中的语句，类放不下时用来重新生成
+        List<Stmt> current = new ArrayList<>();
+        startClass();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) continue;
+            statement.accept(this);
+            if (fits()) {
+                current.add(statement);
+                if (length >= SOFT_CODE_LIMIT) {
+                    units.add(finishClass());
+                    current.clear();
+                    startClass();
+                }
+                continue;
+            }
+            //放不下时先把之前的语句单独生成一个类，再为这条语句开始新的类
+            if (!current.isEmpty()) {
+                startClass();
+                for (Stmt previous : current) {
+                    previous.accept(this);
+                }
+                units.add(finishClass());
+                current.clear();
+                startClass();
+                statement.accept(this);
+                if (fits()) {
+                    current.add(statement);
+                    continue;
+                }
+            }
+            units.add(new Unit(null, null, statement));
+            startClass();
+        }
+        if (!current.isEmpty()) {
+            units.add(finishClass());
+        }
+        return units;
+    }
+
+    private boolean fits() {
+        return length + 1 <= MAX_CODE && writer.constantCount() <= ClassFileWriter.MAX_CONSTANTS;
+    }
+
+    private void startClass() {
+        writer = new ClassFileWriter();
+        constants = new ArrayList<>();
+        code = new byte[1024];
+        length = 0;
+        stack = 0;
+        maxStack = 0;
+        nextLocal = FIRST_LOCAL;
+        maxLocals = FIRST_LOCAL;
+    }
+
+    private Unit finishClass() {
+        emit(RETURN);
+        byte[] classFile = writer.toByteArray(CLASS_NAME, METHOD_NAME, METHOD_DESCRIPTOR,
+                Arrays.copyOf(code, length), maxStack, maxLocals);
+        return new Unit(classFile, constants.toArray(), null);
+    }
+
+    //类型分析
+
+    /**
+     * 先假设所有局部变量都是数字，发现非数字的赋值时改为Object，直到不再变化
+     * @param statements
+     */
+    private void analyze(List<Stmt> statements) {
+        do {
+            changed = false;
+            for (Stmt statement : statements) {
+                analyze(statement);
+            }
+        } while (changed);
+    }
+
+    private void analyze(Stmt stmt) {
+        if (stmt instanceof Stmt.Block) {
+            Stmt.Block block = (Stmt.Block) stmt;
+            //没有声明变量的块没有作用域
+            if (block.slotCount == 0) {
+                for (Stmt statement : block.statements) {
+                    analyze(statement);
+                }
+                return;
+            }
+            boolean[] object = objectSlots.computeIfAbsent(block, b -> new boolean[b.slotCount]);
+            scopes.add(new Scope(object, null));
+            for (Stmt statement : block.statements) {
+                analyze(statement);
+            }
+            scopes.remove(scopes.size() - 1);
+        } else if (stmt instanceof Stmt.Var) {
+            Stmt.Var var = (Stmt.Var) stmt;
+            if (var.initializer != null) analyze(var.initializer);
+            if (var.slot >= 0 && (var.initializer == null || !numeric(var.initializer))) {
+                markObject(scope(0), var.slot);
+            }
+        } else if (stmt instanceof Stmt.Expression) {
+            analyze(((Stmt.Expression) stmt).expression);
+        } else if (stmt instanceof Stmt.Print) {
+            analyze(((Stmt.Print) stmt).expression);
+        }
+    }
+
+    private void analyze(Expr expr) {
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            analyze(assign.value);
+            if (assign.depth >= 0 && !numeric(assign.value)) {
+                markObject(scope(assign.depth), assign.slot);
+            }
+        } else if (expr instanceof Expr.Binary) {
+            analyze(((Expr.Binary) expr).left);
+            analyze(((Expr.Binary) expr).right);
+        } else if (expr instanceof Expr.Grouping) {
+            analyze(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Unary) {
+            analyze(((Expr.Unary) expr).right);
+        }
+    }
+
+    private void markObject(Scope scope, int slot) {
+        if (!scope.object[slot]) {
+            scope.object[slot] = true;
+            changed = true;
+        }
+    }
+
+    private Scope scope(int depth) {
+        return scopes.get(scopes.size() - 1 - depth);
+    }
+
+    /**
+     * 表达式的结果在编译时是否已知为数字，是的话在操作数栈上以double表示
+     * 减、乘、除、取负的结果一定是数字（否则是运行时错误）
+     * @param expr
+     * @return
+     */
+    private boolean numeric(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).value instanceof Double;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return numeric(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return true;
+                case PLUS:
+                    return numeric(binary.left) && numeric(binary.right);
+                default:
+                    return false;
+            }
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            return variable.depth >= 0 && !scope(variable.depth).object[variable.slot];
+        }
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            return assign.depth >= 0 && !scope(assign.depth).object[assign.slot];
+        }
+        return false;
+    }
+
+    //表达式
+
+    /**
+     * 生成表达式，结果为Object，数字在这里装箱
+     * @param expr
+     */
+    private void object(Expr expr) {
+        expr.accept(this);
+        if (numeric(expr)) {
+            invoke(INVOKESTATIC, DOUBLE_VALUE_OF);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth >= 0) {
+            Scope scope = scope(expr.depth);
+            int index = scope.index[expr.slot];
+            if (scope.object[expr.slot]) {
+                object(expr.value);
+                emit(DUP, 1);
+                local(ASTORE, index, -1);
+            } else {
+                expr.value.accept(this);
+                emit(DUP2, 2);
+                local(DSTORE, index, -2);
+            }
+            return null;
+        }
+        local(ALOAD, GLOBALS, 1);
+        token(expr.name);
+        object(expr.value);
+        //赋值表达式的值留在栈上
+        emit(DUP_X2, 1);
+        invoke(INVOKEVIRTUAL, ASSIGN);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        boolean numbers = numeric(expr.left) && numeric(expr.right);
+        switch (expr.operator.type) {
+            case PLUS: return numbers ? arithmetic(expr, DADD) : checked(expr, ADD);
+            case MINUS: return numbers ? arithmetic(expr, DSUB) : checked(expr, SUBTRACT);
+            case STAR: return numbers ? arithmetic(expr, DMUL) : checked(expr, MULTIPLY);
+            case SLASH: return numbers ? arithmetic(expr, DDIV) : checked(expr, DIVIDE);
+            case GREATER: return numbers ? compare(expr, GREATER_NUMBERS) : checked(expr, GREATER);
+            case GREATER_EQUAL:
+                return numbers ? compare(expr, GREATER_EQUAL_NUMBERS) : checked(expr, GREATER_EQUAL);
+            case LESS: return numbers ? compare(expr, LESS_NUMBERS) : checked(expr, LESS);
+            case LESS_EQUAL: return numbers ? compare(expr, LESS_EQUAL_NUMBERS) : checked(expr, LESS_EQUAL);
+            case EQUAL_EQUAL: return numbers ? compare(expr, EQUAL_NUMBERS) : equality(expr, EQUAL);
+            case BANG_EQUAL: return numbers ? compare(expr, NOT_EQUAL_NUMBERS) : equality(expr, NOT_EQUAL);
+        }
+        throw new IllegalStateException("Unknown binary operator " + expr.operator.type);
+    }
+
+    /**
+     * 两边都是数字的算术运算
+     */
+    private Void arithmetic(Expr.Binary expr, int opcode) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        emit(opcode, -2);
+        return null;
+    }
+
+    /**
+     * 两边都是数字的比较，由JvmRuntime装箱结果
+     */
+    private Void compare(Expr.Binary expr, ClassFileWriter.MethodRef method) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        invoke(INVOKESTATIC, method);
+        return null;
+    }
+
+    /**
+     * 两边求值后由JvmRuntime检查类型再计算
+     */
+    private Void checked(Expr.Binary expr, ClassFileWriter.MethodRef method) {
+        object(expr.left);
+        object(expr.right);
+        token(expr.operator);
+        invoke(INVOKESTATIC, method);
+        return null;
+    }
+
+    private Void equality(Expr.Binary expr, ClassFileWriter.MethodRef method) {
+        object(expr.left);
+        object(expr.right);
+        invoke(INVOKESTATIC, method);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value == null) {
+            emit(ACONST_NULL, 1);
+        } else if (value instanceof Double) {
+            emit(LDC2_W, 2);
+            u2(writer.doubleConstant((Double) value));
+        } else if (value instanceof Boolean) {
+            pushInt((Boolean) value ? 1 : 0);
+            invoke(INVOKESTATIC, BOOLEAN_VALUE_OF);
+        } else if (ClassFileWriter.fitsUtf8((String) value)) {
+            emit(LDC_W, 1);
+            u2(writer.string((String) value));
+        } else {
+            //放不进常量池的长字符串从constants数组中读取
+            constant(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            if (numeric(expr.right)) {
+                expr.right.accept(this);
+                emit(DNEG, 0);
+            } else {
+                object(expr.right);
+                token(expr.operator);
+                invoke(INVOKESTATIC, NEGATE);
+            }
+            return null;
+        }
+        object(expr.right);
+        invoke(INVOKESTATIC, NOT);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            Scope scope = scope(expr.depth);
+            if (scope.object[expr.slot]) {
+                local(ALOAD, scope.index[expr.slot], 1);
+            } else {
+                local(DLOAD, scope.index[expr.slot], 2);
+            }
+            return null;
+        }
+        local(ALOAD, GLOBALS, 1);
+        token(expr.name);
+        invoke(INVOKEVIRTUAL, GET);
+        return null;
+    }
+
+    //语句
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.slotCount == 0) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+        boolean[] object = objectSlots.get(stmt);
+        int[] index = new int[stmt.slotCount];
+        int saved = nextLocal;
+        for (int i = 0; i < index.length; i++) {
+            index[i] = nextLocal;
+            nextLocal += object[i] ? 1 : 2;
+        }
+        maxLocals = Math.max(maxLocals, nextLocal);
+        scopes.add(new Scope(object, index));
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        scopes.remove(scopes.size() - 1);
+        //块结束后JVM局部变量可以给后面的块复用
+        nextLocal = saved;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression.accept(this);
+        if (numeric(stmt.expression)) {
+            emit(POP2, -2);
+        } else {
+            emit(POP, -1);
+        }
+        return null;
+    }
+
+    /**
+     * 被引入的文件已由ModuleLoader按依赖顺序先执行
+     * @param stmt
+     * @return
+     */
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        local(ALOAD, OUT, 1);
+        stmt.expression.accept(this);
+        if (numeric(stmt.expression)) {
+            invoke(INVOKESTATIC, STRINGIFY_NUMBER);
+        } else {
+            invoke(INVOKESTATIC, STRINGIFY);
+        }
+        invoke(INVOKEVIRTUAL, PRINTLN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot >= 0) {
+            Scope scope = scope(0);
+            int index = scope.index[stmt.slot];
+            if (!scope.object[stmt.slot]) {
+                stmt.initializer.accept(this);
+                local(DSTORE, index, -2);
+            } else {
+                initializer(stmt.initializer);
+                local(ASTORE, index, -1);
+            }
+            return null;
+        }
+        local(ALOAD, GLOBALS, 1);
+        if (ClassFileWriter.fitsUtf8(stmt.name.lexeme)) {
+            emit(LDC_W, 1);
+            u2(writer.string(stmt.name.lexeme));
+        } else {
+            constant(stmt.name.lexeme);
+        }
+        initializer(stmt.initializer);
+        invoke(INVOKEVIRTUAL, DEFINE);
+        return null;
+    }
+
+    private void initializer(Expr initializer) {
+        if (initializer == null) {
+            emit(ACONST_NULL, 1);
+        } else {
+            object(initializer);
+        }
+    }
+
+    //指令
+
+    private void token(Token token) {
+        constant(token);
+        emit(CHECKCAST, 0);
+        u2(writer.classRef(TOKEN));
+    }
+
+    /**
+     * 从constants数组读取常量
+     * @param value
+     */
+    private void constant(Object value) {
+        local(ALOAD, CONSTANTS, 1);
+        pushInt(constants.size());
+        constants.add(value);
+        emit(AALOAD, -1);
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(BIPUSH, 1);
+            u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(SIPUSH, 1);
+            u2(value);
+        } else {
+            emit(LDC_W, 1);
+            u2(writer.integer(value));
+        }
+    }
+
+    private void local(int opcode, int index, int stackEffect) {
+        if (index > 255) {
+            emit(WIDE);
+            emit(opcode, stackEffect);
+            u2(index);
+        } else {
+            emit(opcode, stackEffect);
+            u1(index);
+        }
+    }
+
+    private void invoke(int opcode, ClassFileWriter.MethodRef method) {
+        emit(opcode, method.stackEffect);
+        u2(writer.methodRef(method));
+    }
+
+    private void emit(int opcode, int stackEffect) {
+        emit(opcode);
+        stack += stackEffect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void emit(int opcode) {
+        u1(opcode);
+    }
+
+    private void u1(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+}
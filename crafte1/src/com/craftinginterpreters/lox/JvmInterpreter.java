@@ -0,0 +1,74 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编译为JVM字节码执行
+ * 生成的类作为隐藏类定义在本包中，不再被引用时可以卸载
+ */
+class JvmInterpreter {
+    private static final MethodType RUN_TYPE = MethodType.methodType(
+            void.class, Environment.class, PrintWriter.class, Object[].class);
+
+    //全局作用域，生成的代码和后备的解释器共用
+    final Environment globals = new Environment();
+    //print语句的输出目标
+    private final PrintWriter out;
+    //执行放不进一个JVM方法的语句
+    private final Interpreter fallback;
+
+    JvmInterpreter(PrintWriter out) {
+        this.out = out;
+        this.fallback = new Interpreter(out, globals);
+    }
+
+    /**
+     * 先生成并定义全部的类，再按顺序执行
+     * 执行结束或出现运行时错误时刷新输出，运行时错误交给调用方报告
+     * @param statements
+     */
+    void interpret(List<Stmt> statements) {
+        List<JvmCompiler.Unit> units = new JvmCompiler().compile(statements);
+        List<MethodHandle> handles = new ArrayList<>(units.size());
+        for (JvmCompiler.Unit unit : units) {
+            handles.add(unit.classFile == null ? null : define(unit.classFile));
+        }
+        try {
+            for (int i = 0; i < units.size(); i++) {
+                JvmCompiler.Unit unit = units.get(i);
+                if (unit.statement != null) {
+                    fallback.interpret(Collections.singletonList(unit.statement));
+                    continue;
+                }
+                run(handles.get(i), unit.constants);
+            }
+        } finally {
+            out.flush();
+        }
+    }
+
+    private static MethodHandle define(byte[] classFile) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return lookup.findStatic(lookup.lookupClass(), JvmCompiler.METHOD_NAME, RUN_TYPE);
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Cannot load generated class", e);
+        }
+    }
+
+    private void run(MethodHandle handle, Object[] constants) {
+        try {
+            handle.invokeExact(globals, out, constants);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
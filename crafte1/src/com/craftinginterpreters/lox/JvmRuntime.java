@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * 生成的JVM字节码调用的运行时方法
+ * 操作数类型在编译时不确定时由这里检查，错误信息与树遍历解释器相同
+ */
+final class JvmRuntime {
+    private JvmRuntime() {
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left + (Double) right;
+        }
+        if (Rope.isString(left) && Rope.isString(right)) {
+            return Rope.concat(left, right);
+        }
+        throw new RuntimeError(operator, "Operands must two numbers or two strings.");
+    }
+
+    static double subtract(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (Double) left - (Double) right;
+    }
+
+    static double multiply(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (Double) left * (Double) right;
+    }
+
+    static double divide(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (Double) left / (Double) right;
+    }
+
+    static Boolean greater(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (Double) left > (Double) right;
+    }
+
+    static Boolean greaterEqual(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (Double) left >= (Double) right;
+    }
+
+    static Boolean less(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (Double) left < (Double) right;
+    }
+
+    static Boolean lessEqual(Object left, Object right, Token operator) {
+        checkNumbers(left, right, operator);
+        return (Double) left <= (Double) right;
+    }
+
+    //两边在编译时已知是数字的比较，生成的代码不含分支，结果由这里装箱
+
+    static Boolean greater(double left, double right) {
+        return left > right;
+    }
+
+    static Boolean greaterEqual(double left, double right) {
+        return left >= right;
+    }
+
+    static Boolean less(double left, double right) {
+        return left < right;
+    }
+
+    static Boolean lessEqual(double left, double right) {
+        return left <= right;
+    }
+
+    /**
+     * 与Double.equals一致按位比较
+     * @param left
+     * @param right
+     * @return
+     */
+    static Boolean equal(double left, double right) {
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    static Boolean notEqual(double left, double right) {
+        return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+    }
+
+    static Boolean equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Boolean notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static double negate(Object operand, Token operator) {
+        if (operand instanceof Double) return -(Double) operand;
+        throw new RuntimeError(operator, "Operand must be a number");
+    }
+
+    static Boolean not(Object operand) {
+        return !Interpreter.isTruthy(operand);
+    }
+
+    private static void checkNumbers(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
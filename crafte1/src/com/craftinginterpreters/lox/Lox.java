@@ -3,40 +3,93 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    //命令行会话使用的引擎，在整个会话中记录全局变量和已加载的文件
+    private static Engine engine;
+    //剖析模式下折叠栈的输出文件，未开启时为null
+    private static Path profileOutput;
 
     public static void main(String[] args) throws IOException{
-
-        //如果是源码有多个地址就报错
-        if (args.length > 1) {
-            System.out.println("Usage:jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            //从命令行输入源码地址
-            runFile(args[0]);
+        List<String> scripts = new ArrayList<>();
+        //输出到带缓冲的标准输出
+        Engine.Builder builder = Engine.builder().output(Interpreter.standardOutput());
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                //使用字节码虚拟机代替树遍历解释器执行
+                builder.bytecode(true);
+            } else if (arg.equals("--jvm")) {
+                //编译为JVM字节码执行
+                builder.jvm(true);
+            } else if (arg.equals("--nodes")) {
+                //使用按操作数类型自我专门化的节点树执行
+                builder.specializing(true);
+            } else if (arg.equals("--mmap")) {
+                //内存映射源文件，按UTF-8字节扫描
+                builder.memoryMapped(true);
+            } else if (arg.equals("--parallel-scan")) {
+                //整个读入源文件，大文件分块并行扫描
+                builder.parallelScan(true);
+            } else if (arg.equals("--flat")) {
+                //解析为按下标存储的扁平语法树执行
+                builder.flat(true);
+            } else if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+                //记录每条语句的耗时，结束时报告输出到标准错误，折叠栈写入文件
+                builder.profiling(true);
+                profileOutput = Paths.get(arg.equals("--profile")
+                        ? "jlox.collapsed" : arg.substring("--profile=".length()));
+            } else if (arg.equals("--optimize")) {
+                //执行前先做常量折叠等语法树优化
+                builder.optimize(true);
+            } else if (arg.startsWith("--max-errors=")) {
+                //每个文件最多报告这么多条语法错误，之后停止解析
+                try {
+                    builder.maxErrors(Integer.parseInt(arg.substring("--max-errors=".length())));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid value: " + arg);
+                    System.exit(64);
+                }
+            } else if (arg.equals("--cache")) {
+                //解析结果缓存到磁盘，源文件未改动时跳过扫描和解析
+                builder.cache(AstCache.defaultDirectory());
+            } else if (!arg.startsWith("--")) {
+                scripts.add(arg);
+            } else {
+                System.out.println("Usage:jlox [--vm | --nodes | --jvm | --flat | --profile[=file]] [--optimize] [--cache] [--mmap] [--parallel-scan] [--max-errors=n] [script...]");
+                System.exit(64);
+            }
+        }
+        engine = builder.build();
+        if (!scripts.isEmpty()) {
+            //从命令行输入源码地址，可以有多个文件
+            runFiles(scripts);
         } else {
             //交互式的执行代码
             runPrompt();
         }
     }
-    private static void runFile(String path) throws IOException {
-        //根据地址读取文件
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        //以默认编码格式执行
-        run(new String(bytes, Charset.defaultCharset()));
+    private static void runFiles(List<String> paths) {
+        List<Path> roots = new ArrayList<>();
+        for (String path : paths) {
+            roots.add(Paths.get(path));
+        }
+        //并行解析所有文件及其引入的文件，再按依赖顺序执行
+        Engine.Result result = engine.run(roots);
+        printDiagnostics(result);
+        writeProfile();
         //如果发生错误，以非零的结束代码退出
-        if (hadError)
+        if (result.hadSyntaxError())
             System.exit(65);
         //从文件中运行脚本发生错误时，退出
-        if (hadRuntimeError) System.exit(70);
+        if (result.hadRuntimeError()) System.exit(70);
     }
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
@@ -46,48 +99,46 @@ public class Lox {
             //当本地没有输入的时候跳出循环
             String line = reader.readLine();
             if (line == null) break;
-            //一行行的运行代码
-            run(line);
-            //交互式循环，如果用户输入错误，不应该终止整个会话
-            hadError = false;
+            //一行行的运行代码，交互式循环中用户输入错误不会终止整个会话
+            printDiagnostics(engine.eval(line));
+        }
+        writeProfile();
+    }
+
+    private static void writeProfile() {
+        if (profileOutput == null) return;
+        engine.writeProfileReport(new PrintWriter(new OutputStreamWriter(System.err)));
+        try (Writer out = Files.newBufferedWriter(profileOutput)) {
+            engine.writeCollapsedStacks(out);
+        } catch (IOException e) {
+            System.err.println("Cannot write profile: " + e.getMessage());
         }
     }
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        //转换为语法标记
-        List<Token> tokens = scanner.scanTokens();
-        //利用解析树和语法树将语法标记进行组合
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements  = parser.parse();
-        //如果存在语法错误就返回
-        if (hadError) return;
-        //调用解释器
-        interpreter.interpret(statements);
 
+    /**
+     * 所有错误拼好后一次写到标准错误，错误很多时不必逐行加锁和刷新
+     * @param result
+     */
+    private static void printDiagnostics(Engine.Result result) {
+        if (result.diagnostics().isEmpty()) return;
+        StringBuilder text = new StringBuilder();
+        for (Diagnostic diagnostic : result.diagnostics()) {
+            text.append(diagnostic).append(System.lineSeparator());
+        }
+        System.err.print(text);
+        System.err.flush();
     }
 
+    //直接输出到标准错误的错误接收方
+    static final ErrorReporter reporter = Lox::report;
+
     static void error(int line, String message) {
-        report(line,"",message);
+        reporter.error(line, 0, message);
     }
-    private static void report(int line,String where,String message) {
-        System.err.println("[line"+line+"]Error"+where+":"+message);
-        hadError = true;
+    private static void report(int line, int column, Token token, String message) {
+        System.err.println(Diagnostic.syntax(null, line, column, token, message));
     }
     static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line,"at end",message);
-        } else {
-            report(token.line, " at '"+token.lexeme+"'",message);
-        }
-    }
-
-    /**
-     * 运行时异常
-     * @param error
-     */
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line "+ error.token.line +"]");
-        hadRuntimeError = true;
+        reporter.error(token, message);
     }
 }
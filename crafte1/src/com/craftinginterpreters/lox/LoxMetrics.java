@@ -0,0 +1,192 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * 进程内的运行指标
+ * 扫描器和解释器在自己的普通字段中计数，一次执行结束时才累加到这里的LongAdder，
+ * 热路径上没有原子操作，多线程同时执行时也不会争用同一个缓存行
+ */
+public final class LoxMetrics implements LoxMetricsMBean {
+    static final String OBJECT_NAME = "com.craftinginterpreters.lox:type=Metrics";
+
+    private static final LoxMetrics GLOBAL = new LoxMetrics();
+    private static final AtomicBoolean registered = new AtomicBoolean(false);
+
+    private final LongAdder tokensScanned = new LongAdder();
+    private final LongAdder statementsExecuted = new LongAdder();
+    private final LongAdder expressionsEvaluated = new LongAdder();
+    private final LongAdder environmentLookups = new LongAdder();
+    private final LongAdder environmentDepthWalked = new LongAdder();
+    private final LongAdder environmentsAllocated = new LongAdder();
+    private final LongAdder syntaxErrors = new LongAdder();
+    private final LongAdder runtimeErrors = new LongAdder();
+    private final LongAdder scanNanos = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder interpretNanos = new LongAdder();
+    private final AtomicInteger activeExecutions = new AtomicInteger();
+
+    private LoxMetrics() {
+    }
+
+    public static LoxMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 注册到平台MBeanServer，只注册一次；无法注册时（如没有权限）不影响执行
+     */
+    static void register() {
+        if (!registered.compareAndSet(false, true)) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(GLOBAL, LoxMetricsMBean.class), new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException ignored) {
+        }
+    }
+
+    /**
+     * @return 所有指标的当前值，按固定顺序排列
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("tokensScanned", getTokensScanned());
+        values.put("statementsExecuted", getStatementsExecuted());
+        values.put("expressionsEvaluated", getExpressionsEvaluated());
+        values.put("environmentLookups", getEnvironmentLookups());
+        values.put("environmentDepthWalked", getEnvironmentDepthWalked());
+        values.put("environmentsAllocated", getEnvironmentsAllocated());
+        values.put("syntaxErrors", getSyntaxErrors());
+        values.put("runtimeErrors", getRuntimeErrors());
+        values.put("scanNanos", getScanNanos());
+        values.put("parseNanos", getParseNanos());
+        values.put("interpretNanos", getInterpretNanos());
+        values.put("activeExecutions", (long) getActiveExecutions());
+        return values;
+    }
+
+    //由扫描器、解释器和Engine累加
+
+    void addTokens(long count) {
+        tokensScanned.add(count);
+    }
+
+    void addExecution(long statements, long expressions, long lookups, long depthWalked, long environments) {
+        statementsExecuted.add(statements);
+        expressionsEvaluated.add(expressions);
+        environmentLookups.add(lookups);
+        environmentDepthWalked.add(depthWalked);
+        environmentsAllocated.add(environments);
+    }
+
+    void addSyntaxErrors(long count) {
+        syntaxErrors.add(count);
+    }
+
+    void runtimeError() {
+        runtimeErrors.increment();
+    }
+
+    void addScanNanos(long nanos) {
+        scanNanos.add(nanos);
+    }
+
+    void addParseNanos(long nanos) {
+        parseNanos.add(nanos);
+    }
+
+    void addInterpretNanos(long nanos) {
+        interpretNanos.add(nanos);
+    }
+
+    void executionStarted() {
+        activeExecutions.incrementAndGet();
+    }
+
+    void executionFinished() {
+        activeExecutions.decrementAndGet();
+    }
+
+    @Override
+    public long getTokensScanned() {
+        return tokensScanned.sum();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statementsExecuted.sum();
+    }
+
+    @Override
+    public long getExpressionsEvaluated() {
+        return expressionsEvaluated.sum();
+    }
+
+    @Override
+    public long getEnvironmentLookups() {
+        return environmentLookups.sum();
+    }
+
+    @Override
+    public long getEnvironmentDepthWalked() {
+        return environmentDepthWalked.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environmentsAllocated.sum();
+    }
+
+    @Override
+    public long getSyntaxErrors() {
+        return syntaxErrors.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getScanNanos() {
+        return scanNanos.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    @Override
+    public long getInterpretNanos() {
+        return interpretNanos.sum();
+    }
+
+    @Override
+    public int getActiveExecutions() {
+        return activeExecutions.get();
+    }
+
+    @Override
+    public void reset() {
+        tokensScanned.reset();
+        statementsExecuted.reset();
+        expressionsEvaluated.reset();
+        environmentLookups.reset();
+        environmentDepthWalked.reset();
+        environmentsAllocated.reset();
+        syntaxErrors.reset();
+        runtimeErrors.reset();
+        scanNanos.reset();
+        parseNanos.reset();
+        interpretNanos.reset();
+    }
+}
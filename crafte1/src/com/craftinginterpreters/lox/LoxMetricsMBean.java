@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * 通过JMX暴露的运行指标，所有数值都是进程内累计值
+ * 语句、表达式、变量查找、环境分配的计数来自树遍历解释器（包括剖析模式），其他执行方式只计时间和错误
+ */
+public interface LoxMetricsMBean {
+    long getTokensScanned();
+
+    long getStatementsExecuted();
+
+    long getExpressionsEvaluated();
+
+    /**
+     * @return 变量读取和赋值的次数
+     */
+    long getEnvironmentLookups();
+
+    /**
+     * @return 查找局部变量时沿enclosing链向外走的总层数
+     */
+    long getEnvironmentDepthWalked();
+
+    long getEnvironmentsAllocated();
+
+    long getSyntaxErrors();
+
+    long getRuntimeErrors();
+
+    long getScanNanos();
+
+    /**
+     * @return 解析耗时，从文件流式加载时扫描和解析交替进行，扫描时间也计入这里
+     */
+    long getParseNanos();
+
+    long getInterpretNanos();
+
+    /**
+     * @return 正在执行的eval/run调用个数
+     */
+    int getActiveExecutions();
+
+    /**
+     * 把所有累计值清零
+     */
+    void reset();
+}
@@ -0,0 +1,367 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 多文件加载
+ * 每个文件在fork-join线程池中并行扫描和解析，解析出的import再并行加载被引入的文件
+ * 全部解析完成后按依赖顺序排列（被引入的文件在前），同一文件在一次会话中只成功执行一次
+ * 有错误、无法读取或执行出错的文件不算加载过，下次加载时重新读取并报告
+ */
+class ModuleLoader {
+
+    /**
+     * 一个源文件
+     */
+    static class Module {
+        final Path path;
+        //输出错误时显示的文件名
+        final String name;
+        List<Stmt> statements = Collections.emptyList();
+        //使用扁平语法树时的解析结果，否则为null
+        AstArena program;
+        //按源码顺序的import，与imports一一对应
+        final List<Token> importTokens = new ArrayList<>();
+        final List<Path> imports = new ArrayList<>();
+        //本文件的语法错误
+        final List<Diagnostic> errors = new ArrayList<>();
+        //文件无法读取时为true，错误报告在引入它的位置
+        boolean unreadable = false;
+
+        Module(Path path) {
+            this.path = path;
+            this.name = displayName(path);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final Charset charset;
+    //为null时不使用磁盘缓存
+    private final AstCache cache;
+    //每个文件最多收集的语法错误条数
+    private final int maxErrors;
+    //解析为扁平语法树
+    private final boolean flat;
+    //内存映射源文件，直接扫描UTF-8字节
+    private final boolean mapped;
+    //整个读入源文件，较大的文件分块并行扫描
+    private final boolean whole;
+    //本次加载中解析过的文件和已经成功执行的文件
+    private final Map<Path, Module> modules = new ConcurrentHashMap<>();
+    //已经成功执行的文件
+    private final Set<Path> executed = new HashSet<>();
+
+    ModuleLoader(Options options) {
+        if (options.flat && options.cache != null) {
+            throw new IllegalArgumentException("The flat AST is not cached.");
+        }
+        this.pool = ForkJoinPool.commonPool();
+        //映射的文件直接按UTF-8字节扫描，其余按平台默认编码读取
+        this.charset = options.mapped ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+        this.cache = options.cache;
+        this.maxErrors = options.maxErrors;
+        this.flat = options.flat;
+        this.mapped = options.mapped;
+        this.whole = options.whole;
+    }
+
+    /**
+     * 加载方式，未设置的项保持默认值
+     */
+    static final class Options {
+        private AstCache cache;
+        private int maxErrors = Integer.MAX_VALUE;
+        private boolean flat = false;
+        private boolean mapped = false;
+        private boolean whole = false;
+
+        /**
+         * @param cache 为null时不使用磁盘缓存，flat时必须为null
+         * @return
+         */
+        Options cache(AstCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * @param maxErrors 每个文件达到这么多条语法错误后停止解析
+         * @return
+         */
+        Options maxErrors(int maxErrors) {
+            this.maxErrors = maxErrors;
+            return this;
+        }
+
+        /**
+         * @param flat 解析为AstArena
+         * @return
+         */
+        Options flat(boolean flat) {
+            this.flat = flat;
+            return this;
+        }
+
+        /**
+         * @param mapped 内存映射源文件并按UTF-8扫描
+         * @return
+         */
+        Options mapped(boolean mapped) {
+            this.mapped = mapped;
+            return this;
+        }
+
+        /**
+         * @param whole 不映射时整个读入文件，较大的文件分块并行扫描
+         * @return
+         */
+        Options whole(boolean whole) {
+            this.whole = whole;
+            return this;
+        }
+    }
+
+    /**
+     * 两种语法树中的import路径标记，按源码顺序
+     * @param statements
+     * @param program 不为null时忽略statements
+     * @return
+     */
+    static List<Token> importPaths(List<Stmt> statements, AstArena program) {
+        List<Token> paths = new ArrayList<>();
+        if (program != null) {
+            for (int i = 0; i < program.programCount(); i++) {
+                int node = program.programStatement(i);
+                if (program.kind(node) == AstArena.IMPORT) {
+                    paths.add(program.token(node));
+                }
+            }
+            return paths;
+        }
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Import) {
+                paths.add(((Stmt.Import) stmt).path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * 并行加载给定文件及其引入的所有文件
+     * 之前加载但没有成功执行的文件重新读取
+     * @param roots
+     * @return 尚未成功执行的文件，按依赖顺序排列
+     */
+    List<Module> load(List<Path> roots) {
+        modules.keySet().retainAll(executed);
+        List<Module> rootModules = new ArrayList<>();
+        List<ParseTask> tasks = new ArrayList<>();
+        for (Path root : roots) {
+            Path path = root.toAbsolutePath().normalize();
+            Module module = new Module(path);
+            Module existing = modules.putIfAbsent(path, module);
+            if (existing == null) {
+                tasks.add(new ParseTask(module));
+            } else {
+                module = existing;
+            }
+            rootModules.add(module);
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        List<Module> result = new ArrayList<>();
+        Set<Path> visiting = new HashSet<>();
+        Set<Path> placed = new HashSet<>();
+        for (Module module : rootModules) {
+            if (module.unreadable) {
+                if (placed.add(module.path)) {
+                    module.errors.add(Diagnostic.syntax(module.name, 0, 0, null, "Cannot read file."));
+                    result.add(module);
+                }
+                continue;
+            }
+            order(module, visiting, placed, result);
+        }
+        return result;
+    }
+
+    /**
+     * 文件执行完且没有运行时错误，之后的加载不再执行它
+     * @param module
+     */
+    void executed(Module module) {
+        executed.add(module.path);
+    }
+
+    /**
+     * 深度优先，被引入的文件先于引入它的文件
+     * @param module
+     * @param visiting 当前路径上的文件，用于发现循环引入
+     * @param placed 本次已经排入执行顺序的文件
+     * @param result
+     */
+    private void order(Module module, Set<Path> visiting, Set<Path> placed, List<Module> result) {
+        if (executed.contains(module.path) || placed.contains(module.path)) return;
+        visiting.add(module.path);
+        for (int i = 0; i < module.imports.size(); i++) {
+            Path path = module.imports.get(i);
+            Module child = modules.get(path);
+            Token token = module.importTokens.get(i);
+            if (child.unreadable) {
+                module.errors.add(Diagnostic.syntax(module.name, token.line, token.column,
+                        token, "Cannot read module."));
+                continue;
+            }
+            if (visiting.contains(path)) {
+                module.errors.add(Diagnostic.syntax(module.name, token.line, token.column,
+                        token, "Import cycle."));
+                continue;
+            }
+            order(child, visiting, placed, result);
+        }
+        visiting.remove(module.path);
+        placed.add(module.path);
+        result.add(module);
+    }
+
+    /**
+     * 只读映射整个文件，缓冲区不再被引用后映射随之释放
+     * @param path
+     * @return
+     * @throws IOException 文件超过2GB时也视为无法读取
+     */
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private static String displayName(Path path) {
+        Path current = Path.of("").toAbsolutePath();
+        return path.startsWith(current) ? current.relativize(path).toString() : path.toString();
+    }
+
+    /**
+     * 解析一个文件，并为其中新出现的import创建子任务
+     */
+    private class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Module module;
+
+        ParseTask(Module module) {
+            this.module = module;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                parse();
+            } catch (IOException e) {
+                module.unreadable = true;
+                return;
+            }
+
+            List<ParseTask> subtasks = new ArrayList<>();
+            Path directory = module.path.getParent();
+            for (Token token : importPaths(module.statements, module.program)) {
+                //相对路径以引入它的文件所在目录为准
+                Path path = directory.resolve((String) token.literal).normalize();
+                module.importTokens.add(token);
+                module.imports.add(path);
+                Module child = new Module(path);
+                if (modules.putIfAbsent(path, child) == null) {
+                    subtasks.add(new ParseTask(child));
+                }
+            }
+            invokeAll(subtasks);
+        }
+
+        private void parse() throws IOException {
+            String key = null;
+            //使用缓存时只读取一次文件，缓存键和解析基于同一份内容，两次读取之间文件被改写也不会错配
+            byte[] content = null;
+            if (cache != null) {
+                content = Files.readAllBytes(module.path);
+                key = cache.key(content, charset);
+                List<Stmt> cached = cache.load(key);
+                if (cached != null) {
+                    module.statements = cached;
+                    return;
+                }
+            }
+
+            DiagnosticCollector reporter = new DiagnosticCollector(module.name, maxErrors);
+            if (flat || mapped || whole) {
+                //扁平语法树引用按列存储的标记，需要整个文件在内存中；映射的文件不复制也不解码，使用缓存时扫描已读入的内容
+                //指定whole时较大的文件分块并行扫描
+                if (content == null && !mapped) content = Files.readAllBytes(module.path);
+                String source = mapped ? null : new String(content, charset);
+                ByteBuffer bytes = mapped ? (content != null ? ByteBuffer.wrap(content) : map(module.path)) : null;
+                //扫描错误暂存，解析时再与解析错误按流式解析的顺序交错报告，上限作用于合并后的错误
+                ScanErrors scanErrors = new ScanErrors(reporter, maxErrors);
+                long started = System.nanoTime();
+                TokenBuffer tokens;
+                if (mapped) {
+                    tokens = new Utf8Scanner(bytes, scanErrors).scanTokenBuffer();
+                } else if (whole) {
+                    tokens = ParallelScanner.scan(source, scanErrors, maxErrors, pool);
+                } else {
+                    tokens = new Scanner(source, scanErrors).scanTokenBuffer();
+                }
+                long scanned = System.nanoTime();
+                if (flat) {
+                    module.program = new ArenaParser(tokens, scanErrors, reporter).parse();
+                } else {
+                    module.statements = new Parser(tokens, scanErrors, reporter).parse();
+                }
+                LoxMetrics.global().addScanNanos(scanned - started);
+                LoxMetrics.global().addParseNanos(System.nanoTime() - scanned);
+                module.errors.addAll(reporter.diagnostics());
+            } else {
+                //流式读取时扫描和解析交替进行，整段时间都计入解析
+                long started = System.nanoTime();
+                InputStream in = content != null ? new ByteArrayInputStream(content) : Files.newInputStream(module.path);
+                try (Reader reader = new InputStreamReader(in, charset)) {
+                    module.statements = new Parser(new Scanner(reader, reporter), reporter).parse();
+                } finally {
+                    LoxMetrics.global().addParseNanos(System.nanoTime() - started);
+                }
+                module.errors.addAll(reporter.diagnostics());
+            }
+            //有语法错误的文件不缓存，下次仍需报告错误
+            if (key != null && module.errors.isEmpty()) {
+                cache.store(key, module.statements);
+            }
+        }
+    }
+}
@@ -0,0 +1,750 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+
+/**
+ * 可执行的语法树节点
+ * 由NodeBuilder从Expr/Stmt生成，节点直接执行自身，不经过visitor分派
+ * 二元运算节点第一次执行时按看到的操作数类型把自己替换为专门的节点，
+ * 如只见过数字的加法变为double加法，之后类型改变时再退回通用节点
+ */
+abstract class Node {
+    Node parent;
+
+    /**
+     * 设置子节点的父节点
+     * @param child
+     * @return
+     */
+    final <T extends Node> T adopt(T child) {
+        if (child != null) child.parent = this;
+        return child;
+    }
+
+    /**
+     * 在父节点中用replacement替换自己
+     * @param replacement
+     * @return replacement
+     */
+    final <T extends Expression> T replace(T replacement) {
+        parent.replaceChild((Expression) this, replacement);
+        replacement.parent = parent;
+        return replacement;
+    }
+
+    /**
+     * 持有表达式子节点的节点需要实现
+     * @param child
+     * @param replacement
+     */
+    void replaceChild(Expression child, Expression replacement) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no replaceable children");
+    }
+
+    /**
+     * 以double求值时结果不是数字
+     * 只在类型推测失败的慢路径上使用，不记录调用栈
+     */
+    static final class UnexpectedResultException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final Object result;
+
+        UnexpectedResultException(Object result) {
+            super(null, null, false, false);
+            this.result = result;
+        }
+    }
+
+    abstract static class Expression extends Node {
+        abstract Object execute(Environment environment);
+
+        /**
+         * 以double求值，结果不是数字时把它放在异常中返回
+         * 产生数字的节点覆盖此方法以避免装箱
+         * @param environment
+         * @return
+         * @throws UnexpectedResultException
+         */
+        double executeDouble(Environment environment) throws UnexpectedResultException {
+            Object value = execute(environment);
+            if (value instanceof Double) return (Double) value;
+            throw new UnexpectedResultException(value);
+        }
+    }
+
+    abstract static class Statement extends Node {
+        abstract void execute(Environment environment);
+    }
+
+    //表达式
+
+    static final class Constant extends Expression {
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return value;
+        }
+    }
+
+    static final class NumberConstant extends Expression {
+        private final double value;
+        //execute时返回同一个装箱对象
+        private final Double boxed;
+
+        NumberConstant(double value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return boxed;
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            return value;
+        }
+    }
+
+    static final class LocalGet extends Expression {
+        private final int depth;
+        private final int slot;
+
+        LocalGet(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return environment.getAt(depth, slot);
+        }
+    }
+
+    static final class GlobalGet extends Expression {
+        private final Token name;
+        private final Environment globals;
+
+        GlobalGet(Token name, Environment globals) {
+            this.name = name;
+            this.globals = globals;
+        }
+
+        //第一次读取后缓存的单元，全局变量定义后单元不再改变
+        private Environment.Cell cell;
+
+        @Override
+        Object execute(Environment environment) {
+            Environment.Cell cached = cell;
+            if (cached == null) {
+                cached = cell = globals.cell(name);
+            }
+            return cached.value;
+        }
+    }
+
+    static final class LocalSet extends Expression {
+        private final int depth;
+        private final int slot;
+        private Expression value;
+
+        LocalSet(int depth, int slot, Expression value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            environment.assignAt(depth, slot, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            value = replacement;
+        }
+    }
+
+    static final class GlobalSet extends Expression {
+        private final Token name;
+        private final Environment globals;
+        private Expression value;
+
+        private Environment.Cell cell;
+
+        GlobalSet(Token name, Environment globals, Expression value) {
+            this.name = name;
+            this.globals = globals;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            if (cell == null) {
+                cell = globals.cell(name);
+            }
+            cell.value = result;
+            return result;
+        }
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            value = replacement;
+        }
+    }
+
+    static final class Negate extends Expression {
+        private final Token operator;
+        private Expression operand;
+
+        Negate(Token operator, Expression operand) {
+            this.operator = operator;
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeDouble(environment);
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            try {
+                return -operand.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw new RuntimeError(operator, "Operand must be a number");
+            }
+        }
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            operand = replacement;
+        }
+    }
+
+    static final class Not extends Expression {
+        private Expression operand;
+
+        Not(Expression operand) {
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return !Interpreter.isTruthy(operand.execute(environment));
+        }
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            operand = replacement;
+        }
+    }
+
+    /**
+     * 二元运算，两边的子节点可以被替换
+     */
+    abstract static class Binary extends Expression {
+        final Token operator;
+        Expression left;
+        Expression right;
+
+        Binary(Token operator, Expression left, Expression right) {
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        /**
+         * 两边的值已经求出后的通用语义，类型不对时抛出运行时错误
+         * @param left
+         * @param right
+         * @return
+         */
+        abstract Object compute(Object left, Object right);
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            if (left == child) {
+                left = replacement;
+            } else if (right == child) {
+                right = replacement;
+            }
+        }
+    }
+
+    /**
+     * 尚未执行过的二元运算，第一次执行时按操作数类型选择专门的节点并替换自己
+     */
+    static final class UninitializedBinary extends Binary {
+        UninitializedBinary(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            return replace(specialize(leftValue, rightValue)).compute(leftValue, rightValue);
+        }
+
+        @Override
+        Object compute(Object left, Object right) {
+            return specialize(left, right).compute(left, right);
+        }
+
+        private Binary specialize(Object leftValue, Object rightValue) {
+            boolean numbers = leftValue instanceof Double && rightValue instanceof Double;
+            switch (operator.type) {
+                case PLUS:
+                    if (numbers) return new DoubleAdd(operator, left, right);
+                    if (Rope.isString(leftValue) && Rope.isString(rightValue)) {
+                        return new StringAdd(operator, left, right);
+                    }
+                    return new GenericAdd(operator, left, right);
+                //其余算术和比较运算只接受数字，类型不对时专门节点同样会报错
+                case MINUS: return new DoubleSubtract(operator, left, right);
+                case STAR: return new DoubleMultiply(operator, left, right);
+                case SLASH: return new DoubleDivide(operator, left, right);
+                case GREATER: return new DoubleGreater(operator, left, right);
+                case GREATER_EQUAL: return new DoubleGreaterEqual(operator, left, right);
+                case LESS: return new DoubleLess(operator, left, right);
+                case LESS_EQUAL: return new DoubleLessEqual(operator, left, right);
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    boolean negated = operator.type == TokenType.BANG_EQUAL;
+                    if (numbers) return new DoubleEqual(operator, left, right, negated);
+                    return new Equal(operator, left, right, negated);
+            }
+            throw new IllegalStateException("Unknown binary operator " + operator.type);
+        }
+    }
+
+    /**
+     * 两边都按double求值的算术运算，不装箱
+     */
+    abstract static class DoubleArithmetic extends Binary {
+        DoubleArithmetic(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        abstract double apply(double left, double right);
+
+        /**
+         * 操作数不是数字时的处理，默认报错，加法改为通用节点
+         * @param left
+         * @param right
+         * @return
+         */
+        Object fallback(Object left, Object right) {
+            return compute(left, right);
+        }
+
+        @Override
+        Object compute(Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return apply((Double) left, (Double) right);
+            }
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            try {
+                return executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeDouble(Environment environment) throws UnexpectedResultException {
+            double leftValue;
+            try {
+                leftValue = left.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                //与树遍历解释器一致，报错前右边也要求值
+                Object rightValue = right.execute(environment);
+                return expectDouble(fallback(e.result, rightValue));
+            }
+            double rightValue;
+            try {
+                rightValue = right.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(fallback(leftValue, e.result));
+            }
+            return apply(leftValue, rightValue);
+        }
+
+        private static double expectDouble(Object value) throws UnexpectedResultException {
+            if (value instanceof Double) return (Double) value;
+            throw new UnexpectedResultException(value);
+        }
+    }
+
+    static final class DoubleAdd extends DoubleArithmetic {
+        DoubleAdd(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        double apply(double left, double right) {
+            return left + right;
+        }
+
+        @Override
+        Object fallback(Object leftValue, Object rightValue) {
+            return replace(new GenericAdd(operator, left, right)).compute(leftValue, rightValue);
+        }
+    }
+
+    static final class DoubleSubtract extends DoubleArithmetic {
+        DoubleSubtract(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        double apply(double left, double right) {
+            return left - right;
+        }
+    }
+
+    static final class DoubleMultiply extends DoubleArithmetic {
+        DoubleMultiply(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        double apply(double left, double right) {
+            return left * right;
+        }
+    }
+
+    static final class DoubleDivide extends DoubleArithmetic {
+        DoubleDivide(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        double apply(double left, double right) {
+            return left / right;
+        }
+    }
+
+    static final class StringAdd extends Binary {
+        StringAdd(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            if (Rope.isString(leftValue) && Rope.isString(rightValue)) {
+                return Rope.concat(leftValue, rightValue);
+            }
+            return replace(new GenericAdd(operator, left, right)).compute(leftValue, rightValue);
+        }
+
+        @Override
+        Object compute(Object left, Object right) {
+            return GenericAdd.add(operator, left, right);
+        }
+    }
+
+    /**
+     * 见过多种操作数类型的加法，不再改变
+     */
+    static final class GenericAdd extends Binary {
+        GenericAdd(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            return add(operator, leftValue, right.execute(environment));
+        }
+
+        @Override
+        Object compute(Object left, Object right) {
+            return add(operator, left, right);
+        }
+
+        static Object add(Token operator, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (Double) left + (Double) right;
+            }
+            if (Rope.isString(left) && Rope.isString(right)) {
+                return Rope.concat(left, right);
+            }
+            throw new RuntimeError(operator, "Operands must two numbers or two strings.");
+        }
+    }
+
+    /**
+     * 两边都按double比较，结果为布尔值
+     */
+    abstract static class DoubleComparison extends Binary {
+        DoubleComparison(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        abstract boolean apply(double left, double right);
+
+        @Override
+        Object compute(Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return apply((Double) left, (Double) right);
+            }
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            double leftValue;
+            try {
+                leftValue = left.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return compute(e.result, right.execute(environment));
+            }
+            double rightValue;
+            try {
+                rightValue = right.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return compute(leftValue, e.result);
+            }
+            return apply(leftValue, rightValue);
+        }
+    }
+
+    static final class DoubleGreater extends DoubleComparison {
+        DoubleGreater(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean apply(double left, double right) {
+            return left > right;
+        }
+    }
+
+    static final class DoubleGreaterEqual extends DoubleComparison {
+        DoubleGreaterEqual(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean apply(double left, double right) {
+            return left >= right;
+        }
+    }
+
+    static final class DoubleLess extends DoubleComparison {
+        DoubleLess(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean apply(double left, double right) {
+            return left < right;
+        }
+    }
+
+    static final class DoubleLessEqual extends DoubleComparison {
+        DoubleLessEqual(Token operator, Expression left, Expression right) {
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean apply(double left, double right) {
+            return left <= right;
+        }
+    }
+
+    /**
+     * 只见过数字的相等比较
+     * 与Double.equals一致按位比较，NaN等于自身，0.0不等于-0.0
+     */
+    static final class DoubleEqual extends Binary {
+        private final boolean negated;
+
+        DoubleEqual(Token operator, Expression left, Expression right, boolean negated) {
+            super(operator, left, right);
+            this.negated = negated;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            double leftValue;
+            try {
+                leftValue = left.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return generalize().compute(e.result, right.execute(environment));
+            }
+            double rightValue;
+            try {
+                rightValue = right.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return generalize().compute(leftValue, e.result);
+            }
+            boolean equal = Double.doubleToLongBits(leftValue) == Double.doubleToLongBits(rightValue);
+            return equal != negated;
+        }
+
+        @Override
+        Object compute(Object left, Object right) {
+            return Interpreter.isEqual(left, right) != negated;
+        }
+
+        private Equal generalize() {
+            return replace(new Equal(operator, left, right, negated));
+        }
+    }
+
+    static final class Equal extends Binary {
+        private final boolean negated;
+
+        Equal(Token operator, Expression left, Expression right, boolean negated) {
+            super(operator, left, right);
+            this.negated = negated;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            return compute(leftValue, right.execute(environment));
+        }
+
+        @Override
+        Object compute(Object left, Object right) {
+            return Interpreter.isEqual(left, right) != negated;
+        }
+    }
+
+    //语句
+
+    static final class Block extends Statement {
+        private final int slotCount;
+        private final Statement[] statements;
+
+        Block(int slotCount, Statement[] statements) {
+            this.slotCount = slotCount;
+            this.statements = statements;
+            for (Statement statement : statements) {
+                adopt(statement);
+            }
+        }
+
+        @Override
+        void execute(Environment environment) {
+            //没有声明变量的块没有自己的作用域
+            if (slotCount == 0) {
+                for (Statement statement : statements) {
+                    statement.execute(environment);
+                }
+                return;
+            }
+            Environment inner = environment.enter(slotCount);
+            try {
+                for (Statement statement : statements) {
+                    statement.execute(inner);
+                }
+            } finally {
+                inner.leave(slotCount);
+            }
+        }
+    }
+
+    static final class ExpressionStatement extends Statement {
+        private Expression expression;
+
+        ExpressionStatement(Expression expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        void execute(Environment environment) {
+            expression.execute(environment);
+        }
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            expression = replacement;
+        }
+    }
+
+    static final class Print extends Statement {
+        private final PrintWriter out;
+        private Expression expression;
+
+        Print(PrintWriter out, Expression expression) {
+            this.out = out;
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        void execute(Environment environment) {
+            out.println(Interpreter.stringify(expression.execute(environment)));
+        }
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            expression = replacement;
+        }
+    }
+
+    static final class LocalDefine extends Statement {
+        private final int slot;
+        //没有初始化表达式时为null
+        private Expression initializer;
+
+        LocalDefine(int slot, Expression initializer) {
+            this.slot = slot;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        void execute(Environment environment) {
+            Object value = initializer == null ? null : initializer.execute(environment);
+            environment.defineAt(slot, value);
+        }
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            initializer = replacement;
+        }
+    }
+
+    static final class GlobalDefine extends Statement {
+        private final String name;
+        private final Environment globals;
+        private Expression initializer;
+
+        GlobalDefine(String name, Environment globals, Expression initializer) {
+            this.name = name;
+            this.globals = globals;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        void execute(Environment environment) {
+            Object value = initializer == null ? null : initializer.execute(environment);
+            globals.define(name, value);
+        }
+
+        @Override
+        void replaceChild(Expression child, Expression replacement) {
+            initializer = replacement;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把解析并完成变量解析的语法树转换为可执行节点
+ * 局部/全局变量、数字常量等在这里就区分开，二元运算先生成未初始化节点，执行时再专门化
+ */
+class NodeBuilder implements Expr.Visitor<Node.Expression>, Stmt.Visitor<Node.Statement> {
+    private final Environment globals;
+    private final PrintWriter out;
+
+    NodeBuilder(Environment globals, PrintWriter out) {
+        this.globals = globals;
+        this.out = out;
+    }
+
+    List<Node.Statement> build(List<Stmt> statements) {
+        List<Node.Statement> nodes = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Node.Statement node = statement.accept(this);
+            if (node != null) nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private Node.Expression build(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    @Override
+    public Node.Expression visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth >= 0) {
+            return new Node.LocalSet(expr.depth, expr.slot, build(expr.value));
+        }
+        return new Node.GlobalSet(expr.name, globals, build(expr.value));
+    }
+
+    @Override
+    public Node.Expression visitBinaryExpr(Expr.Binary expr) {
+        return new Node.UninitializedBinary(expr.operator, build(expr.left), build(expr.right));
+    }
+
+    /**
+     * 括号只影响解析，不生成节点
+     * @param expr
+     * @return
+     */
+    @Override
+    public Node.Expression visitGroupingExpr(Expr.Grouping expr) {
+        return build(expr.expression);
+    }
+
+    @Override
+    public Node.Expression visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) {
+            return new Node.NumberConstant((Double) expr.value);
+        }
+        return new Node.Constant(expr.value);
+    }
+
+    @Override
+    public Node.Expression visitUnaryExpr(Expr.Unary expr) {
+        Node.Expression operand = build(expr.right);
+        if (expr.operator.type == TokenType.MINUS) {
+            return new Node.Negate(expr.operator, operand);
+        }
+        return new Node.Not(operand);
+    }
+
+    @Override
+    public Node.Expression visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            return new Node.LocalGet(expr.depth, expr.slot);
+        }
+        return new Node.GlobalGet(expr.name, globals);
+    }
+
+    @Override
+    public Node.Statement visitBlockStmt(Stmt.Block stmt) {
+        return new Node.Block(stmt.slotCount, build(stmt.statements).toArray(new Node.Statement[0]));
+    }
+
+    @Override
+    public Node.Statement visitExpressionStmt(Stmt.Expression stmt) {
+        return new Node.ExpressionStatement(build(stmt.expression));
+    }
+
+    /**
+     * 被引入的文件已由ModuleLoader按依赖顺序先执行
+     * @param stmt
+     * @return
+     */
+    @Override
+    public Node.Statement visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Node.Statement visitPrintStmt(Stmt.Print stmt) {
+        return new Node.Print(out, build(stmt.expression));
+    }
+
+    @Override
+    public Node.Statement visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot >= 0) {
+            return new Node.LocalDefine(stmt.slot, build(stmt.initializer));
+        }
+        return new Node.GlobalDefine(stmt.name.lexeme, globals, build(stmt.initializer));
+    }
+}
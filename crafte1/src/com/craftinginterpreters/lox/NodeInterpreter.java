@@ -0,0 +1,34 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * 自专门化节点的执行入口
+ * 每次执行先把语法树转换为节点树，全局变量在多次执行之间保留
+ */
+class NodeInterpreter {
+    //全局作用域
+    final Environment globals = new Environment();
+    //print语句的输出目标
+    private final PrintWriter out;
+
+    NodeInterpreter(PrintWriter out) {
+        this.out = out;
+    }
+
+    /**
+     * 执行结束或出现运行时错误时刷新输出，运行时错误交给调用方报告
+     * @param statements
+     */
+    void interpret(List<Stmt> statements) {
+        List<Node.Statement> nodes = new NodeBuilder(globals, out).build(statements);
+        try {
+            for (Node.Statement node : nodes) {
+                node.execute(globals);
+            }
+        } finally {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * 字节码指令
+ * 带操作数的指令在其后紧跟两个字节（高位在前）的操作数
+ */
+final class OpCode {
+    //常量池下标
+    static final byte OP_CONSTANT = 0;
+    static final byte OP_NIL = 1;
+    static final byte OP_TRUE = 2;
+    static final byte OP_FALSE = 3;
+    static final byte OP_POP = 4;
+    //局部变量在栈中的绝对下标
+    static final byte OP_GET_LOCAL = 5;
+    static final byte OP_SET_LOCAL = 6;
+    static final byte OP_DEFINE_LOCAL = 7;
+    //全局变量名在常量池中的下标
+    static final byte OP_GET_GLOBAL = 8;
+    static final byte OP_SET_GLOBAL = 9;
+    static final byte OP_DEFINE_GLOBAL = 10;
+    static final byte OP_EQUAL = 11;
+    static final byte OP_GREATER = 12;
+    static final byte OP_GREATER_EQUAL = 13;
+    static final byte OP_LESS = 14;
+    static final byte OP_LESS_EQUAL = 15;
+    static final byte OP_ADD = 16;
+    static final byte OP_SUBTRACT = 17;
+    static final byte OP_MULTIPLY = 18;
+    static final byte OP_DIVIDE = 19;
+    static final byte OP_NOT = 20;
+    static final byte OP_NEGATE = 21;
+    static final byte OP_PRINT = 22;
+    //进入/离开块作用域，操作数为该作用域的变量个数
+    static final byte OP_ENTER = 23;
+    static final byte OP_LEAVE = 24;
+    static final byte OP_RETURN = 25;
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,154 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 可选的语法树优化，位于Parser和Resolver之间
+ * 折叠常量的算术、比较和字符串拼接，去掉多余的括号，化简字面量上的!和取负
+ * 会在运行时报错的常量表达式（如 "a" - 1）保持原样，错误仍在原来的行报告
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            result.add(optimize(statement));
+        }
+        return result;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(stmt.brace, optimize(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(stmt.keyword, expression);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Expr folded = fold(expr.operator,
+                    ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+            if (folded != null) return folded;
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    /**
+     * 按解释器的语义计算常量二元表达式
+     * @param operator
+     * @param left
+     * @param right
+     * @return 折叠后的字面量，运行时会报错的组合返回null
+     */
+    private Expr fold(Token operator, Object left, Object right) {
+        switch (operator.type) {
+            case BANG_EQUAL:
+                return new Expr.Literal(!Interpreter.isEqual(left, right));
+            case EQUAL_EQUAL:
+                return new Expr.Literal(Interpreter.isEqual(left, right));
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return new Expr.Literal((String) left + (String) right);
+                }
+                break;
+        }
+        if (!(left instanceof Double) || !(right instanceof Double)) return null;
+        double a = (double) left;
+        double b = (double) right;
+        switch (operator.type) {
+            case GREATER: return new Expr.Literal(a > b);
+            case GREATER_EQUAL: return new Expr.Literal(a >= b);
+            case LESS: return new Expr.Literal(a < b);
+            case LESS_EQUAL: return new Expr.Literal(a <= b);
+            case MINUS: return new Expr.Literal(a - b);
+            case PLUS: return new Expr.Literal(a + b);
+            case SLASH: return new Expr.Literal(a / b);
+            case STAR: return new Expr.Literal(a * b);
+        }
+        return null;
+    }
+
+    /**
+     * 括号只影响解析时的优先级，解析完成后直接返回内部表达式
+     * @param expr
+     * @return
+     */
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).value;
+            switch (expr.operator.type) {
+                case BANG:
+                    return new Expr.Literal(!Interpreter.isTruthy(value));
+                case MINUS:
+                    if (value instanceof Double) {
+                        return new Expr.Literal(-(double) value);
+                    }
+                    break;
+            }
+        }
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
@@ -0,0 +1,248 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.craftinginterpreters.lox.TokenType.EOF;
+
+/**
+ * 并行扫描内存中的大段源码
+ * 源码按行切成若干块，各块假定不在字符串中，同时扫描到各自的TokenBuffer，块内行号从1开始，再按顺序拼接
+ * 跨行的词法状态只有字符串，注释到行尾就结束，不会越过块的边界：
+ * 某块结尾处字符串未结束时，它的"Unterminated string."不是真正的错误，
+ * 从字符串开头顺序重新扫描到右引号所在块的结尾，这几块的推测结果作废，字符串里像注释的文本也随之归位
+ * 拼接后的标记、行号、列号和错误与Scanner顺序扫描相同
+ */
+final class ParallelScanner {
+    //短于这个长度的源码直接顺序扫描
+    static final int THRESHOLD = 1 << 20;
+    //每块至少这么多字符，块太小时拼接和任务调度的开销超过并行的收益
+    private static final int MIN_CHUNK = 1 << 18;
+
+    private final char[] source;
+    private final ErrorReporter reporter;
+    //每块最多收集的错误条数，与reporter的上限相同时拼接结果才与顺序扫描一致
+    private final int maxErrors;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * 按线程池的并行度分块，每个线程大约分到四块
+     * @param source 扫描和使用标记期间不能修改
+     * @param reporter
+     * @param maxErrors reporter最多接收的错误条数
+     * @param pool
+     */
+    ParallelScanner(char[] source, ErrorReporter reporter, int maxErrors, ForkJoinPool pool) {
+        this(source, reporter, maxErrors, Math.max(MIN_CHUNK, source.length / (pool.getParallelism() * 4)), pool);
+    }
+
+    ParallelScanner(char[] source, ErrorReporter reporter, int maxErrors, int chunkSize, ForkJoinPool pool) {
+        this.source = source;
+        this.reporter = reporter;
+        this.maxErrors = maxErrors;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    /**
+     * 源码较短时顺序扫描，否则并行扫描
+     * @param source
+     * @param reporter
+     * @param maxErrors reporter最多接收的错误条数
+     * @param pool 执行各块扫描的线程池
+     * @return
+     */
+    static TokenBuffer scan(String source, ErrorReporter reporter, int maxErrors, ForkJoinPool pool) {
+        if (source.length() < THRESHOLD || pool.getParallelism() < 2) {
+            return new Scanner(source, reporter).scanTokenBuffer();
+        }
+        return new ParallelScanner(source.toCharArray(), reporter, maxErrors, pool).scanTokenBuffer();
+    }
+
+    TokenBuffer scanTokenBuffer() {
+        int[] bounds = split();
+        int chunks = bounds.length - 1;
+        Region[] regions = new Region[chunks];
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            int index = i;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    regions[index] = new Region(bounds[index], bounds[index + 1], 1);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        int total = 0;
+        for (Region region : regions) {
+            total += region.tokens.size();
+        }
+        TokenBuffer tokens = new TokenBuffer(source, total);
+        //下一块第一行的行号
+        int line = 1;
+        //上一段结尾处未结束的字符串的起点，没有时为-1
+        int resume = -1;
+        int resumeLine = 0;
+        int next = 0;
+        while (next < chunks) {
+            Region region;
+            int lineShift;
+            if (resume < 0) {
+                region = regions[next++];
+                lineShift = line - 1;
+            } else {
+                //右引号所在块之前的推测结果作废，从字符串开头顺序扫描到那一块的结尾
+                int close = indexOf('"', resume + 1);
+                next = close < 0 ? chunks : chunkOf(bounds, close) + 1;
+                region = new Region(resume, bounds[next], resumeLine);
+                lineShift = 0;
+            }
+            boolean last = next == chunks;
+            resume = -1;
+            int errorCount = region.messages.size();
+            if (region.unterminatedStart >= 0 && !last) {
+                //字符串在后面的块中结束，最后一条错误不成立
+                resume = region.unterminatedStart;
+                resumeLine = region.unterminatedLine + lineShift;
+                errorCount--;
+            }
+            for (int i = 0; i < errorCount; i++) {
+                int errorLine = region.lines.get(i) + lineShift;
+                reporter.error(errorLine, region.columns.get(i), region.messages.get(i));
+                if (reporter.full()) {
+                    //与顺序扫描一样停在这条错误处
+                    tokens.append(region.tokens, 0, region.tokenCounts.get(i), lineShift);
+                    tokens.add(EOF, source.length, 0, errorLine, 0);
+                    return finish(tokens);
+                }
+            }
+            int size = region.tokens.size();
+            //各块的EOF只保留最后一块的
+            tokens.append(region.tokens, 0, last ? size : size - 1, lineShift);
+            line = region.endLine + lineShift;
+        }
+        return finish(tokens);
+    }
+
+    private TokenBuffer finish(TokenBuffer tokens) {
+        LoxMetrics.global().addTokens(tokens.size());
+        return tokens;
+    }
+
+    /**
+     * 每块在chunkSize之后的第一个换行符后结束，最后一块到源码结尾
+     * @return 各块的边界，第一个为0，最后一个为源码长度
+     */
+    private int[] split() {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int position = 0;
+        while (position < source.length) {
+            int end = position + chunkSize;
+            if (end >= source.length) {
+                end = source.length;
+            } else {
+                int newline = indexOf('\n', end - 1);
+                end = newline < 0 ? source.length : newline + 1;
+            }
+            bounds.add(end);
+            position = end;
+        }
+        if (bounds.size() == 1) bounds.add(0);
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @param bounds
+     * @param position
+     * @return position所在块的序号
+     */
+    private static int chunkOf(int[] bounds, int position) {
+        int low = 0;
+        int high = bounds.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (bounds[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < source.length; i++) {
+            if (source[i] == c) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 一段源码的扫描结果，错误先留在这里，拼接时按顺序交给reporter
+     */
+    private final class Region implements ErrorReporter {
+        final TokenBuffer tokens;
+        final int endLine;
+        final int unterminatedStart;
+        final int unterminatedLine;
+        final IntList lines = new IntList();
+        final IntList columns = new IntList();
+        final List<String> messages = new ArrayList<>();
+        //每条错误出现前已扫描的标记个数
+        final IntList tokenCounts = new IntList();
+        private final Scanner scanner;
+
+        Region(int start, int end, int line) {
+            scanner = new Scanner(source, start, end, line, this);
+            tokens = scanner.scanRegion();
+            endLine = scanner.line();
+            unterminatedStart = scanner.unterminatedStart();
+            unterminatedLine = scanner.unterminatedLine();
+        }
+
+        @Override
+        public void report(int line, int column, Token token, String message) {
+            lines.add(line);
+            columns.add(column);
+            messages.add(message);
+            tokenCounts.add(scanner.scannedTokens());
+        }
+
+        @Override
+        public boolean full() {
+            return messages.size() >= maxErrors;
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -20,11 +21,114 @@ import static com.craftinginterpreters.lox.TokenType.*;
  *                | "(" expression ")" ;
  */
 class Parser {
-    private static class ParserError extends RuntimeException {}
-    private final List<Token> tokens;
-    private int current = 0;
+    /**
+     * 只用于跳出到declaration后同步，不记录调用栈
+     */
+    private static class ParserError extends RuntimeException {
+        ParserError() {
+            super(null, null, false, false);
+        }
+    }
+    private final TokenCursor tokens;
+    //语法错误的接收方
+    private final ErrorReporter reporter;
+    //当前所在块的嵌套层数，import只能出现在顶层
+    private int blockDepth = 0;
+    //错误接收方已满时视为已到结尾，尽快结束解析
+    private boolean stopped = false;
     Parser(List<Token> tokens) {
+        this(listSource(tokens));
+    }
+
+    Parser(TokenSource tokens) {
+        this(tokens, Lox.reporter);
+    }
+
+    /**
+     * 从标记来源按需拉取标记，可直接接在流式的Scanner后面
+     * @param tokens
+     * @param reporter
+     */
+    Parser(TokenSource tokens, ErrorReporter reporter) {
+        this(new StreamCursor(tokens), reporter);
+    }
+
+    Parser(TokenBuffer tokens) {
+        this(tokens, Lox.reporter);
+    }
+
+    /**
+     * 从按列存储的标记中解析，只为语法树用到的标记生成Token
+     * @param tokens
+     * @param reporter
+     */
+    Parser(TokenBuffer tokens, ErrorReporter reporter) {
+        this(tokens.cursor(), reporter);
+    }
+
+    /**
+     * 扫描错误暂存在scanErrors中，解析时按流式解析的顺序与解析错误交错报告
+     * @param tokens
+     * @param scanErrors
+     * @param reporter
+     */
+    Parser(TokenBuffer tokens, ScanErrors scanErrors, ErrorReporter reporter) {
+        this(tokens.cursor(scanErrors), reporter);
+    }
+
+    private Parser(TokenCursor tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
+    }
+
+    /**
+     * 流式标记来源的游标，只保留最近消费的标记和下一个标记，不需要完整的标记列表
+     */
+    private static class StreamCursor implements TokenCursor {
+        private final TokenSource source;
+        private Token previous;
+        private Token next;
+
+        StreamCursor(TokenSource source) {
+            this.source = source;
+            this.next = source.nextToken();
+        }
+
+        @Override
+        public TokenType peekType() {
+            return next.type;
+        }
+
+        @Override
+        public Token peek() {
+            return next;
+        }
+
+        @Override
+        public Token previous() {
+            return previous;
+        }
+
+        @Override
+        public TokenType previousType() {
+            return previous.type;
+        }
+
+        @Override
+        public Object previousLiteral() {
+            return previous.literal;
+        }
+
+        @Override
+        public void advance() {
+            previous = next;
+            next = source.nextToken();
+        }
+    }
+
+    private static TokenSource listSource(List<Token> tokens) {
+        Iterator<Token> iterator = tokens.iterator();
+        return iterator::next;
     }
 
     /**
@@ -40,6 +144,23 @@ class Parser {
         return statements;
     }
 
+    /**
+     * 是否已解析完所有标记
+     * @return
+     */
+    boolean atEnd() {
+        return isAtEnd();
+    }
+
+    /**
+     * 解析下一条顶层声明，增量解析时逐条调用，有语法错误时返回null
+     * 与parse一样，声明结束后只多读入一个标记
+     * @return
+     */
+    Stmt nextDeclaration() {
+        return declaration();
+    }
+
     private Expr expression() {
         return assignment();
     }
@@ -49,8 +170,10 @@ class Parser {
      * 此规则用于扩展Lox语法以支持语句
      * program        → declaration* EOF ;
      *
-     * declaration    → varDecl //变量
+     * declaration    → importDecl //引入其他文件，只能在顶层
+     *                | varDecl //变量
      *                | statement ;
+     * importDecl     → "import" STRING ";" ;
      *
      * statement      → exprStmt
      *                | printStmt
@@ -67,6 +190,7 @@ class Parser {
      */
     private Stmt declaration() {
         try {
+            if (match(IMPORT)) return importDeclaration();
             if (match(VAR)) return varDeclaration();
             return statement();
         } catch (ParserError error) {
@@ -82,7 +206,7 @@ class Parser {
     private Stmt statement() {
         if (match(PRINT)) return printStatement();
         //如果发现带左括号，就返回block语句
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
+        if (match(LEFT_BRACE)) return new Stmt.Block(previous(), block());
         return expressionStatement();
     }
 
@@ -91,14 +215,30 @@ class Parser {
      * @return
      */
     private Stmt printStatement() {
+        Token keyword = previous();
         Expr value = expression();
         //如果当前语句以分号结尾就是正常
         consume(SEMICOLON, "Expect ';' after value.");
-        return new Stmt.Print(value);
+        return new Stmt.Print(keyword, value);
+    }
+    /**
+     * import语句，被引入的文件由ModuleLoader在执行前加载
+     * @return
+     */
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        if (blockDepth > 0) {
+            throw error(keyword, "Import must be at top level.");
+        }
+        consume(STRING, "Expect module path string after 'import'.");
+        Token path = previous();
+        consume(SEMICOLON, "Expect ';' after import.");
+        return new Stmt.Import(keyword, path);
     }
     private Stmt varDeclaration() {
         //name为标识符 如var a = b; name为a
-        Token name = consume(IDENTIFIER,"Expect variable name.");
+        consume(IDENTIFIER,"Expect variable name.");
+        Token name = previous();
         Expr initializer = null;
         //如果下个字符是=
         if (match(EQUAL)) {
@@ -121,12 +261,17 @@ class Parser {
     private List<Stmt> block() {
         //创建空列表
         List<Stmt> statements = new ArrayList<>();
-        //将块内语句都放入列表
-        while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+        blockDepth++;
+        try {
+            //将块内语句都放入列表
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                statements.add(declaration());
+            }
+            //找到 } 正常结束
+            consume(RIGHT_BRACE, "Expect '}' after block.");
+        } finally {
+            blockDepth--;
         }
-        //找到 } 正常结束
-        consume(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
     /**
@@ -202,7 +347,7 @@ class Parser {
         if (match(NIL)) return new Expr.Literal(null);
 
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.previousLiteral());
         }
         if (match(IDENTIFIER)) {
             return new Expr.Variable(previous());
@@ -234,24 +379,24 @@ class Parser {
      * 判断下一个标记是否是预期类型。是则消费标记，否则报错。（恐慌模式：出现错误，就跳出到最顶层，停止解析）
      * @param type
      * @param message
-     * @return
      */
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
         throw error(peek(),message);
     }
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.peekType() == type;
     }
 
     /**
      * 消费当前标记
-     * @return
      */
-    private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous();
+    private void advance() {
+        if (!isAtEnd()) tokens.advance();
     }
 
     /**
@@ -259,7 +404,7 @@ class Parser {
      * @return
      */
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return stopped || tokens.peekType() == EOF;
     }
 
     /**
@@ -267,7 +412,7 @@ class Parser {
      * @return
      */
     private Token peek() {
-        return tokens.get(current);
+        return tokens.peek();
     }
 
     /**
@@ -275,7 +420,7 @@ class Parser {
      * @return
      */
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
     /**
@@ -285,7 +430,8 @@ class Parser {
      * @return
      */
     private ParserError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
+        if (reporter.full()) stopped = true;
         return new ParserError();
     }
 
@@ -298,11 +444,13 @@ class Parser {
         //如果当前未结束
         while (!isAtEnd()) {
             //如果上一个标记类型为;就返回
-            if (previous().type == SEMICOLON) return;
+            //只比较类型，跳过的标记不创建Token对象
+            if (tokens.previousType() == SEMICOLON) return;
             //如果当前字符类型是开头的关键字就返回
-            switch (peek().type) {
+            switch (tokens.peekType()) {
                 case CLASS:
                 case FUN:
+                case IMPORT:
                 case VAR:
                 case FOR:
                 case IF:
@@ -0,0 +1,187 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 记录每条语句执行次数和耗时的解释器
+ * 只在剖析模式下使用，普通的Interpreter不做任何计时
+ * 块语句的自身耗时不包括其中的语句，报告按自身耗时排序，
+ * 另外可以输出火焰图工具（flamegraph.pl、speedscope等）接受的折叠栈格式
+ */
+class ProfilingInterpreter extends Interpreter {
+
+    /**
+     * 一条语句的统计
+     */
+    static final class Entry {
+        final String module;
+        final int line;
+        //火焰图中的帧名
+        final String frame;
+        //从顶层语句到本语句的折叠栈
+        final String stack;
+        long count = 0;
+        long totalNanos = 0;
+        long childNanos = 0;
+
+        Entry(String module, int line, String frame, String stack) {
+            this.module = module;
+            this.line = line;
+            this.frame = frame;
+            this.stack = stack;
+        }
+
+        long selfNanos() {
+            return totalNanos - childNanos;
+        }
+    }
+
+    //Stmt没有覆盖equals，按对象区分；按第一次执行的顺序排列
+    private final Map<Stmt, Entry> entries = new LinkedHashMap<>();
+    //正在执行的语句
+    private final List<Entry> active = new ArrayList<>();
+    //当前执行的文件，直接执行的源码为null
+    private String module;
+    //没有标记的语句（如"1;"）沿用上一条语句的行号
+    private int lastLine = 0;
+
+    ProfilingInterpreter(PrintWriter out) {
+        super(out);
+    }
+
+    /**
+     * 之后执行的语句属于哪个文件
+     * @param module
+     */
+    void enterModule(String module) {
+        this.module = module;
+    }
+
+    @Override
+    void execute(Stmt stmt) {
+        Entry parent = active.isEmpty() ? null : active.get(active.size() - 1);
+        Entry entry = entries.get(stmt);
+        if (entry == null) {
+            entry = createEntry(stmt, parent);
+            entries.put(stmt, entry);
+        }
+        active.add(entry);
+        long start = System.nanoTime();
+        try {
+            super.execute(stmt);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            active.remove(active.size() - 1);
+            entry.count++;
+            entry.totalNanos += elapsed;
+            if (parent != null) parent.childNanos += elapsed;
+        }
+    }
+
+    private Entry createEntry(Stmt stmt, Entry parent) {
+        int line = lineOf(stmt);
+        if (line > 0) lastLine = line;
+        else line = lastLine;
+        String location = (module == null ? "" : module + ":") + line;
+        //分号分隔帧，空格分隔数值，都不能出现在帧名中
+        String frame = (kindOf(stmt) + "@" + location).replace(';', '_').replace(' ', '_');
+        String stack = parent == null ? frame : parent.stack + ";" + frame;
+        return new Entry(module, line, frame, stack);
+    }
+
+    private static String kindOf(Stmt stmt) {
+        if (stmt instanceof Stmt.Block) return "block";
+        if (stmt instanceof Stmt.Print) return "print";
+        if (stmt instanceof Stmt.Var) return "var:" + ((Stmt.Var) stmt).name.lexeme;
+        if (stmt instanceof Stmt.Import) return "import";
+        return "expr";
+    }
+
+    /**
+     * 语句所在行，找不到标记时为0
+     * @param stmt
+     * @return
+     */
+    private static int lineOf(Stmt stmt) {
+        if (stmt instanceof Stmt.Print) return ((Stmt.Print) stmt).keyword.line;
+        if (stmt instanceof Stmt.Var) return ((Stmt.Var) stmt).name.line;
+        if (stmt instanceof Stmt.Import) return ((Stmt.Import) stmt).keyword.line;
+        if (stmt instanceof Stmt.Expression) return lineOf(((Stmt.Expression) stmt).expression);
+        return ((Stmt.Block) stmt).brace.line;
+    }
+
+    /**
+     * 表达式中最左边的标记所在行
+     * @param expr
+     * @return
+     */
+    private static int lineOf(Expr expr) {
+        if (expr instanceof Expr.Assign) return ((Expr.Assign) expr).name.line;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).name.line;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.line;
+        if (expr instanceof Expr.Grouping) return lineOf(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            int line = lineOf(binary.left);
+            return line > 0 ? line : binary.operator.line;
+        }
+        return 0;
+    }
+
+    /**
+     * 按自身耗时排序的语句报告，以及按行汇总的报告
+     * @param out
+     */
+    void writeReport(PrintWriter out) {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort(Comparator.comparingLong(Entry::selfNanos).reversed());
+        out.println("== statements by self time");
+        out.printf("%12s %12s %10s  %s%n", "self(ms)", "total(ms)", "count", "statement");
+        for (Entry entry : sorted) {
+            out.printf("%12.3f %12.3f %10d  %s%n", millis(entry.selfNanos()),
+                    millis(entry.totalNanos), entry.count, entry.frame);
+        }
+
+        //同一文件同一行的语句合并
+        Map<String, long[]> lines = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            String key = (entry.module == null ? "" : entry.module + ":") + entry.line;
+            long[] totals = lines.computeIfAbsent(key, k -> new long[2]);
+            totals[0] += entry.count;
+            totals[1] += entry.selfNanos();
+        }
+        List<String> keys = new ArrayList<>(lines.keySet());
+        keys.sort(Comparator.comparingLong((String key) -> lines.get(key)[1]).reversed());
+        out.println("== lines by self time");
+        out.printf("%12s %10s  %s%n", "self(ms)", "count", "line");
+        for (String key : keys) {
+            long[] totals = lines.get(key);
+            out.printf("%12.3f %10d  %s%n", millis(totals[1]), totals[0], key);
+        }
+        out.flush();
+    }
+
+    /**
+     * 折叠栈格式，每行为"帧;帧;帧 自身耗时(纳秒)"
+     * @param out
+     */
+    void writeCollapsedStacks(PrintWriter out) {
+        for (Entry entry : entries.values()) {
+            long self = entry.selfNanos();
+            if (self > 0) {
+                out.println(entry.stack + " " + self);
+            }
+        }
+        out.flush();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,176 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 静态解析器，位于Parser和Interpreter之间
+ * 对每个局部变量只计算一次所在作用域的深度和下标，运行时直接按数组下标访问
+ * 顶层声明的变量仍作为全局变量按名称查找
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /**
+     * 局部作用域栈，key 变量名称，value 变量在该作用域中的下标
+     */
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    /**
+     * 在当前作用域声明变量，同一作用域内重复声明复用原下标
+     * @param name
+     * @return 变量下标，全局变量返回-1
+     */
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return -1;
+        Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+        Integer slot = scope.get(name.lexeme);
+        if (slot == null) {
+            slot = scope.size();
+            scope.put(name.lexeme, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * 由内向外查找变量，找到则回填深度和下标，找不到视为全局变量
+     * @param name
+     * @return 长度为2的数组{depth, slot}，全局变量返回null
+     */
+    private int[] resolveLocal(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer slot = scopes.get(i).get(name.lexeme);
+            if (slot != null) {
+                return new int[]{scopes.size() - 1 - i, slot};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 没有直接声明变量的块不建立作用域，slotCount为0，各执行方式进入这样的块时不分配任何东西
+     * 里面的变量按外层作用域计算深度
+     * @param stmt
+     * @return
+     */
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!declaresVariables(stmt.statements)) {
+            stmt.slotCount = 0;
+            resolve(stmt.statements);
+            return null;
+        }
+        beginScope();
+        resolve(stmt.statements);
+        stmt.slotCount = scopes.get(scopes.size() - 1).size();
+        endScope();
+        return null;
+    }
+
+    private static boolean declaresVariables(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        //先解析初始化表达式再声明，与运行时先求值再定义的顺序一致
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        int[] local = resolveLocal(expr.name);
+        if (local != null) {
+            expr.depth = local[0];
+            expr.slot = local[1];
+        } else {
+            expr.depth = -1;
+            expr.slot = -1;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int[] local = resolveLocal(expr.name);
+        if (local != null) {
+            expr.depth = local[0];
+            expr.slot = local[1];
+        } else {
+            expr.depth = -1;
+            expr.slot = -1;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,121 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+
+/**
+ * 字符串拼接的结果，拼接时只记录左右两部分，输出、比较或取长度以外的字符时才展开为String
+ * 在循环中反复拼接长字符串时每次只分配一个节点，而不是复制已有的全部字符
+ * Lox中的字符串值是String或Rope，展开后结果缓存在节点上，子节点随之释放
+ * 与其他值一样只在持有它的引擎中使用，不需要同步
+ */
+final class Rope implements CharSequence {
+    //不超过这个长度的拼接直接复制，短字符串用节点反而更慢、更占内存
+    private static final int FLAT_LIMIT = 256;
+
+    private final int length;
+    //String或Rope，展开后为null
+    private Object left;
+    private Object right;
+    private String flat;
+
+    private Rope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    /**
+     * @param value
+     * @return value是否是Lox字符串
+     */
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    /**
+     * 拼接两个Lox字符串，调用前需保证isString(left)和isString(right)
+     * @param left
+     * @param right
+     * @return String或Rope
+     */
+    static Object concat(Object left, Object right) {
+        int leftLength = ((CharSequence) left).length();
+        int rightLength = ((CharSequence) right).length();
+        if (leftLength == 0) return right;
+        if (rightLength == 0) return left;
+        if (leftLength + rightLength <= FLAT_LIMIT) {
+            return left.toString().concat(right.toString());
+        }
+        //逐段追加的短字符串合并到左边节点的最后一段，节点数约为总长度除以FLAT_LIMIT
+        if (left instanceof Rope && rightLength < FLAT_LIMIT) {
+            Rope rope = (Rope) left;
+            if (rope.flat == null && rope.right instanceof String
+                    && ((String) rope.right).length() + rightLength <= FLAT_LIMIT) {
+                return new Rope(rope.left, ((String) rope.right).concat(right.toString()),
+                        leftLength + rightLength);
+            }
+        }
+        return new Rope(left, right, leftLength + rightLength);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /**
+     * 展开为String，循环中拼接出的节点很深，不用递归
+     * @return
+     */
+    @Override
+    public String toString() {
+        if (flat != null) return flat;
+        char[] chars = new char[length];
+        int position = 0;
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object part = pending.pop();
+            if (part instanceof Rope && ((Rope) part).flat == null) {
+                Rope rope = (Rope) part;
+                pending.push(rope.right);
+                pending.push(rope.left);
+                continue;
+            }
+            String text = part.toString();
+            text.getChars(0, text.length(), chars, position);
+            position += text.length();
+        }
+        flat = new String(chars);
+        left = null;
+        right = null;
+        return flat;
+    }
+
+    /**
+     * 与内容相同的String或Rope相等，与Interpreter.isEqual一致
+     * @param other
+     * @return
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!isString(other) || ((CharSequence) other).length() != length) return false;
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -1,10 +1,13 @@
 package com.craftinginterpreters.lox;
 
+/**
+ * 执行中的错误，只用于把错误信息交给调用方，不记录调用栈
+ */
 public class RuntimeError extends RuntimeException{
     final Token token;
 
     RuntimeError(Token token,String message) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
     }
 }
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 先扫描完整段源码再解析时暂存扫描错误
+ * 边扫描边解析时，扫描错误在解析器取到它后面的第一个标记时报告，与解析错误交错出现，
+ * 达到上限的是两类错误合在一起的前几条；这里在解析器取到同一个标记时才把错误交给真正的接收方，
+ * 报告顺序和保留的错误与流式解析相同
+ */
+final class ScanErrors implements ErrorReporter {
+    private final ErrorReporter target;
+    private final int limit;
+    private final List<Diagnostic> errors = new ArrayList<>();
+    //已交给target的条数
+    private int replayed = 0;
+
+    /**
+     * @param target 解析器使用的错误接收方
+     * @param limit target最多接收的错误条数，扫描器收集到这么多条后停止
+     */
+    ScanErrors(ErrorReporter target, int limit) {
+        this.target = target;
+        this.limit = limit;
+    }
+
+    @Override
+    public void report(int line, int column, Token token, String message) {
+        errors.add(Diagnostic.syntax(null, line, column, token, message));
+    }
+
+    @Override
+    public boolean full() {
+        return errors.size() >= limit;
+    }
+
+    /**
+     * 解析器取到第index个标记，报告在它之前出现的扫描错误
+     * 标记的开头按位置递增，错误位于第index个标记开头之前就是扫描这个标记时出现的；
+     * 取到最后一个标记（EOF）时全部报告，扫描器因上限停止时EOF的位置不在最后
+     * @param tokens 扫描结果
+     * @param index
+     */
+    void reached(TokenBuffer tokens, int index) {
+        boolean end = index == tokens.size() - 1;
+        while (replayed < errors.size()) {
+            Diagnostic error = errors.get(replayed);
+            if (!end && !before(error, tokens, index)) return;
+            target.error(error.line(), error.column(), error.message());
+            replayed++;
+        }
+    }
+
+    private static boolean before(Diagnostic error, TokenBuffer tokens, int index) {
+        int line = tokens.startLine(index);
+        return error.line() < line || error.line() == line && error.column() <= tokens.column(index);
+    }
+}
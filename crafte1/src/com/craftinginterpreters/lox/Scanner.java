@@ -1,61 +1,219 @@
 package com.craftinginterpreters.lox;
 
-import java.nio.channels.FileLock;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
 /**
  * 扫描器，读取字符
+ * 既可以一次扫描整个字符串，也可以从Reader分块读取，由解析器按需拉取标记
  */
-class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+class Scanner implements TokenSource {
+    //从Reader读取时每次读入的字符数
+    private static final int CHUNK_SIZE = 8192;
+
+    //词法错误的接收方
+    private final ErrorReporter reporter;
+    //为null时全部源码已经在buffer中
+    private final Reader reader;
+    //源码窗口，读取新的块时丢弃start之前已经扫描过的字符
+    private char[] buffer;
+    //buffer中有效字符的个数
+    private int limit;
+    //reader已经读完
+    private boolean exhausted = false;
     private int start = 0;
     //当前行指针
     private int current = 0;
     //行数
     private int line = 1;
+    //当前行第一个字符在窗口中的位置，窗口前移时一起调整，可能为负
+    private int lineStart = 0;
+    //当前词素的起始列
+    private int startColumn = 1;
 
-    //关键字
-    private static final Map<String, TokenType> keywords;
+    //关键字的文本，按TokenType序号索引，非关键字为null
+    //关键字标记共用这些字符串，不再为每次出现创建新的字符串
+    private static final String[] keywordText = new String[TokenType.values().length];
     static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else" , ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil" ,NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-
+        for (TokenType type : new TokenType[] {AND, CLASS, ELSE, FALSE, FOR, FUN, IF, IMPORT,
+                NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE}) {
+            keywordText[type.ordinal()] = type.name().toLowerCase();
+        }
     }
 
+    //scanToken识别出的标记，注释和空白不产生标记
+    private Token pending;
+    //scanTokenBuffer时标记写入这里
+    private TokenBuffer tokenBuffer;
+    //逐个生成Token时驻留标识符和字符串字面量
+    private final SymbolTable symbols = new SymbolTable();
+    //已返回的标记个数，扫描到结尾时交给LoxMetrics
+    private long tokenCount = 0;
+    //扫描到结尾时字符串仍未结束，记录它的起始位置和行号，否则为-1
+    private int unterminatedStart = -1;
+    private int unterminatedLine;
+
     Scanner(String source) {
-        this.source = source;
+        this(source, Lox.reporter);
+    }
+
+    Scanner(String source, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = null;
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
+    }
+
+    /**
+     * 从start处开始扫描，增量解析时只重新扫描修改过的区域
+     * @param source 扫描时不能再修改
+     * @param start 不在任何标记或注释的中间
+     * @param line start处的行号
+     * @param reporter
+     */
+    Scanner(char[] source, int start, int line, ErrorReporter reporter) {
+        this(source, start, source.length, line, reporter);
+    }
+
+    /**
+     * 只扫描start到end之间的源码，ParallelScanner按块扫描时使用
+     * @param source 扫描时不能再修改
+     * @param start 不在任何标记或注释的中间
+     * @param end 视为源码结尾
+     * @param line start处的行号
+     * @param reporter
+     */
+    Scanner(char[] source, int start, int end, int line, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = null;
+        this.buffer = source;
+        this.limit = end;
+        this.start = start;
+        this.current = start;
+        this.line = line;
+        while (start > 0 && source[start - 1] != '\n') start--;
+        this.lineStart = start;
+    }
+
+    /**
+     * 流式扫描，源码按块读入，已经扫描过的部分不再保留
+     * @param reader
+     */
+    Scanner(Reader reader) {
+        this(reader, Lox.reporter);
+    }
+
+    Scanner(Reader reader, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = reader;
+        this.buffer = new char[CHUNK_SIZE];
+        this.limit = 0;
     }
 
     List<Token> scanTokens() {
-        //循环扫描每一行代码
-        while(!isAtEnd()) {
+        List<Token> tokens = new ArrayList<>();
+        //循环扫描每一行代码，在扫描尾部加上结束标记
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != EOF);
+        return tokens;
+    }
+
+    /**
+     * 把整个源码扫描到按列存储的TokenBuffer中，词素文本在需要时才创建
+     * 只能用于字符串源码，流式读取的窗口不会保留已扫描的字符
+     * @return
+     */
+    TokenBuffer scanTokenBuffer() {
+        TokenBuffer result = scanRegion();
+        LoxMetrics.global().addTokens(result.size());
+        return result;
+    }
+
+    /**
+     * 与scanTokenBuffer相同，但不计入LoxMetrics，由ParallelScanner在拼接后统一计数
+     * @return
+     */
+    TokenBuffer scanRegion() {
+        if (reader != null) {
+            throw new IllegalStateException("Token buffer needs the whole source in memory.");
+        }
+        tokenBuffer = new TokenBuffer(buffer, (limit - current) / 4 + 16);
+        while (!isAtEnd()) {
             start = current;
+            startColumn = current - lineStart + 1;
             scanToken();
         }
-        //在扫描尾部加上结束标记
-        tokens.add(new Token(EOF,"",null,line));
-        return tokens;
+        tokenBuffer.add(EOF, current, 0, line, current - lineStart + 1);
+        TokenBuffer result = tokenBuffer;
+        tokenBuffer = null;
+        return result;
+    }
+
+    /**
+     * @return 已写入TokenBuffer的标记个数
+     */
+    int scannedTokens() {
+        return tokenBuffer == null ? 0 : tokenBuffer.size();
+    }
+
+    /**
+     * @return 当前行号，扫描结束后为最后一行
+     */
+    int line() {
+        return line;
+    }
+
+    /**
+     * @return 结尾处未结束的字符串的起始位置，没有时为-1
+     */
+    int unterminatedStart() {
+        return unterminatedStart;
+    }
+
+    /**
+     * @return 结尾处未结束的字符串开始的行号
+     */
+    int unterminatedLine() {
+        return unterminatedLine;
+    }
+
+    /**
+     * 扫描并返回下一个标记
+     * @return
+     */
+    @Override
+    public Token nextToken() {
+        while (!isAtEnd()) {
+            start = current;
+            startColumn = current - lineStart + 1;
+            scanToken();
+            if (pending != null) {
+                Token token = pending;
+                pending = null;
+                tokenCount++;
+                return token;
+            }
+        }
+        LoxMetrics.global().addTokens(tokenCount + 1);
+        tokenCount = 0;
+        return new Token(EOF,"",null,line,current - lineStart + 1);
+    }
+
+    /**
+     * 最近返回的标记的结束位置，只用于内存中的源码
+     * @return
+     */
+    int offset() {
+        return current;
     }
 
     /**
@@ -82,7 +240,7 @@ class Scanner {
                 addToken(match('=') ? EQUAL_EQUAL : EQUAL);
                 break;
             case '<':
-                addToken(match('=') ? LESS_EQUAL :EQUAL);
+                addToken(match('=') ? LESS_EQUAL : LESS);
                 break;
             case '>':
                 addToken(match('=') ? GREATER_EQUAL : GREATER);
@@ -107,6 +265,7 @@ class Scanner {
             case '\n':
                 //遇到换行符的情况下，递增行计数器
                 line++;
+                lineStart = current;
                 break;
             case '"':string(); break;
 
@@ -118,7 +277,7 @@ class Scanner {
                     //如果当前字符是字母，就执行identifier
                     identifier();
                 }else {
-                    Lox.error(line, "Unexpected character.");
+                    error(startColumn, "Unexpected character.");
                 }
                 break;
         }
@@ -131,12 +290,68 @@ class Scanner {
         //如果当前current所指是字母或数字，且未到结尾，指针就后移
         //比如abc123
         while (isAlphaNumeric(peek())) advance();
-        //获取进入本次while循环的字符串
-        String text = source.substring(start, current);
-        //判断是否是关键字
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        //直接在字符区间上判断是否是关键字
+        addToken(keywordType());
+    }
+
+    /**
+     * 按首字母（必要时再看第二个字母）分支，剩余部分逐字符比较
+     * @return 关键字对应的类型，不是关键字时为IDENTIFIER
+     */
+    private TokenType keywordType() {
+        switch (buffer[start]) {
+            case 'a': return checkKeyword(1, "nd", AND);
+            case 'c': return checkKeyword(1, "lass", CLASS);
+            case 'e': return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'a': return checkKeyword(2, "lse", FALSE);
+                        case 'o': return checkKeyword(2, "r", FOR);
+                        case 'u': return checkKeyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'f': return checkKeyword(2, "", IF);
+                        case 'm': return checkKeyword(2, "port", IMPORT);
+                    }
+                }
+                break;
+            case 'n': return checkKeyword(1, "il", NIL);
+            case 'o': return checkKeyword(1, "r", OR);
+            case 'p': return checkKeyword(1, "rint", PRINT);
+            case 'r': return checkKeyword(1, "eturn", RETURN);
+            case 's': return checkKeyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'h': return checkKeyword(2, "is", THIS);
+                        case 'r': return checkKeyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", VAR);
+            case 'w': return checkKeyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    /**
+     * 词素从offset开始的剩余部分与rest完全相同时为关键字
+     * @param offset
+     * @param rest
+     * @param type
+     * @return
+     */
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (buffer[start + offset + i] != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
     /**
      * 处理数字词素
@@ -152,7 +367,7 @@ class Scanner {
             while (isDigit(peek())) advance();
         }
         //将整个数字添加为单个词素
-        addToken(NUMBER,Double.parseDouble(source.substring(start,current)));
+        addToken(NUMBER);
     }
 
     /**
@@ -160,22 +375,27 @@ class Scanner {
      */
 
     private void string() {
+        int startLine = line;
         //消费字符，直到找到另一个"为止
         while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
+            if (peek() == '\n') {
+                line++;
+                lineStart = current + 1;
+            }
             advance();
         }
 
         //如果已经到结尾但，只有一个"代表不是完整的字符串，所以报错
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            unterminatedStart = start;
+            unterminatedLine = startLine;
+            error(current - lineStart + 1, "Unterminated string.");
             return;
         }
         //消费右边的"
         advance();
-        //只取双引号内字符串
-        String value = source.substring(start+1,current-1);
-        addToken(STRING,value);
+        //字面值只取双引号内字符串，在生成标记时计算
+        addToken(STRING);
     }
     /**
      * 判断元素是否与期望的一致
@@ -184,7 +404,7 @@ class Scanner {
      */
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current] != expected) return false;
         //指针后移
         current++;
         return true;
@@ -197,7 +417,7 @@ class Scanner {
     public char peek() {
         //如果指针已经移动到尾部，就返回0
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     /**
@@ -205,8 +425,8 @@ class Scanner {
      * @return
      */
     private char peekNext() {
-        if (current + 1 >source.length()) return '\0';
-        return source.charAt(current+1);
+        if (!available(1)) return '\0';
+        return buffer[current+1];
     }
 
     /**
@@ -242,7 +462,58 @@ class Scanner {
      */
     private boolean isAtEnd() {
         //当前指针=源码长度，代表指针已经移动到代码后一位，因为初始current=0
-        return current >= source.length();
+        return !available(0);
+    }
+
+    /**
+     * 判断current之后第offset个字符是否存在，不够时从reader继续读取
+     * 读取时窗口会整体前移，所以这里按相对current的偏移判断
+     * @param offset
+     * @return
+     */
+    private boolean available(int offset) {
+        while (current + offset >= limit) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 读入下一块源码，当前词素之前的字符移出窗口
+     * @return 是否读到了新的字符
+     */
+    private boolean fill() {
+        if (reader == null || exhausted) return false;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            current -= start;
+            limit -= start;
+            lineStart -= start;
+            start = 0;
+        }
+        //单个词素超过窗口大小时扩容，如很长的字符串
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        try {
+            int count = reader.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                exhausted = true;
+                return false;
+            }
+            limit += count;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 当前词素的文本
+     * @return
+     */
+    private String lexeme() {
+        return new String(buffer, start, current - start);
     }
 
 
@@ -251,24 +522,64 @@ class Scanner {
      * @return
      */
     private char advance() {
-        return source.charAt(current++);
+        return buffer[current++];
     }
 
     /**
-     * 调用另一个addToken
+     * 将当前词素组装为一个token
+     * 写入TokenBuffer时只记录类型、位置和行号，不创建对象
      * @param type
      */
     private void addToken(TokenType type) {
-        addToken(type,null);
+        if (tokenBuffer != null) {
+            tokenBuffer.add(type, start, current - start, line, startColumn);
+            return;
+        }
+        String text;
+        Object literal = null;
+        if (type == IDENTIFIER) {
+            text = symbols.intern(buffer, start, current - start);
+        } else if (type == STRING) {
+            text = lexeme();
+            literal = symbols.intern(buffer, start + 1, current - start - 2);
+        } else {
+            text = keywordText[type.ordinal()];
+            if (text == null) text = lexeme();
+            literal = literalValue(type, buffer, start, current - start);
+        }
+        pending = new Token(type, text, literal, line, startColumn);
     }
 
     /**
-     * 将当前词素文本组装为一个token
+     * 报告扫描错误，错误接收方不再接收时直接跳到结尾
+     * @param column
+     * @param message
+     */
+    private void error(int column, String message) {
+        reporter.error(line, column, message);
+        if (reporter.full()) {
+            current = limit;
+            exhausted = true;
+        }
+    }
+
+    /**
+     * 根据词素计算对应java中的值，数字和字符串以外的标记为null
      * @param type
-     * @param literal
+     * @param chars
+     * @param start
+     * @param length
+     * @return
      */
-    private void addToken(TokenType type,Object literal) {
-        String text = source.substring(start,current);
-        tokens.add(new Token(type, text,literal,line));
+    static Object literalValue(TokenType type, char[] chars, int start, int length) {
+        switch (type) {
+            case NUMBER:
+                return Double.parseDouble(new String(chars, start, length));
+            case STRING:
+                //只取双引号内字符串
+                return new String(chars, start + 1, length - 2);
+            default:
+                return null;
+        }
     }
 }
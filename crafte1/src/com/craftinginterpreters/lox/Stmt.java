@@ -6,12 +6,16 @@ abstract class Stmt{
  interface Visitor<R> {
     R visitBlockStmt(Block stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitImportStmt(Import stmt);
     R visitPrintStmt(Print stmt);
     R visitVarStmt(Var stmt);
  }
  static class Block extends Stmt {
+    final Token brace;
     final List<Stmt> statements;
-    Block(List<Stmt> statements){
+    int slotCount = 0;
+    Block(Token brace, List<Stmt> statements){
+      this.brace = brace;
       this.statements = statements;
     }
 
@@ -32,10 +36,26 @@ abstract class Stmt{
       return visitor.visitExpressionStmt(this);
     }
 
+ }
+ static class Import extends Stmt {
+    final Token keyword;
+    final Token path;
+    Import(Token keyword, Token path){
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
  }
  static class Print extends Stmt {
+    final Token keyword;
     final Expr expression;
-    Print(Expr expression){
+    Print(Token keyword, Expr expression){
+      this.keyword = keyword;
       this.expression = expression;
     }
 
@@ -48,6 +68,7 @@ abstract class Stmt{
  static class Var extends Stmt {
     final Token name;
     final Expr initializer;
+    int slot = -1;
     Var(Token name, Expr initializer){
       this.name = name;
       this.initializer = initializer;
@@ -0,0 +1,108 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 标识符和字符串字面量的驻留表
+ * 每个扫描器和TokenBuffer持有一个，直接按字符区间查找，同一段源码中重复出现的名字不再创建字符串，
+ * 共用的String对象哈希值只计算一次，HashMap按名字查找时equals先比较引用
+ * 没有进程级的全局表：长期运行的Engine加载再多脚本，驻留的字符串也随各自的标记和语法树一起回收
+ */
+class SymbolTable {
+    //开放寻址表，hashes与entries一一对应
+    private String[] entries = new String[64];
+    private int[] hashes = new int[64];
+    private int count = 0;
+
+    /**
+     * 取得本表中与字符区间相等的字符串
+     * @param chars
+     * @param start
+     * @param length
+     * @return
+     */
+    String intern(char[] chars, int start, int length) {
+        //与String.hashCode相同的算法
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = entries.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (entries[index] != null) {
+            if (hashes[index] == hash && matches(entries[index], chars, start, length)) {
+                return entries[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return insert(index, hash, new String(chars, start, length));
+    }
+
+    /**
+     * 取得本表中与UTF-8字节区间相等的字符串
+     * 标识符都是ASCII，按字节查表；含多字节字符的字符串字面量很少重复，直接解码不驻留
+     * @param bytes
+     * @param start
+     * @param length
+     * @return
+     */
+    String intern(ByteBuffer bytes, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = bytes.get(i);
+            if (b < 0) return Utf8Scanner.decode(bytes, start, length);
+            hash = 31 * hash + b;
+        }
+        int mask = entries.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (entries[index] != null) {
+            if (hashes[index] == hash && matches(entries[index], bytes, start, length)) {
+                return entries[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return insert(index, hash, Utf8Scanner.ascii(bytes, start, length));
+    }
+
+    private String insert(int index, int hash, String symbol) {
+        entries[index] = symbol;
+        hashes[index] = hash;
+        //装载因子不超过一半
+        if (++count * 2 > entries.length) grow();
+        return symbol;
+    }
+
+    private static boolean matches(String symbol, char[] chars, int start, int length) {
+        if (symbol.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != chars[start + i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(String symbol, ByteBuffer bytes, int start, int length) {
+        if (symbol.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (symbol.charAt(i) != bytes.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] oldEntries = entries;
+        int[] oldHashes = hashes;
+        entries = new String[oldEntries.length * 2];
+        hashes = new int[oldEntries.length * 2];
+        int mask = entries.length - 1;
+        for (int i = 0; i < oldEntries.length; i++) {
+            if (oldEntries[i] == null) continue;
+            int hash = oldHashes[i];
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while (entries[index] != null) {
+                index = (index + 1) & mask;
+            }
+            entries[index] = oldEntries[i];
+            hashes[index] = hash;
+        }
+    }
+}
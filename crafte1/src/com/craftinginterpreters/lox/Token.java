@@ -12,12 +12,19 @@ class Token {
     final  Object literal;
     //所在行，用来报错
     final int line;
+    //在所在行中从1开始的列，不知道时为0
+    final int column;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, 0);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int column) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.column = column;
     }
 
     public String toString() {
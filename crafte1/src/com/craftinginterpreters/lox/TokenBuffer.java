@@ -0,0 +1,225 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * 按列存储的标记序列：类型、起始位置、长度、行号、列号各用一个基本类型数组
+ * 不为每个标记创建Token对象和词素字符串，解析器或报错真正需要时才生成
+ * 源码可以是字符数组，也可以是UTF-8字节（位置按字节计，文本在生成时解码）
+ */
+class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    //标记所在的源码，source和bytes只有一个不为null
+    private final char[] source;
+    private final ByteBuffer bytes;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] columns;
+    private int count = 0;
+    //运算符、关键字等固定文本的词素按类型共用一个字符串
+    private final String[] fixedLexemes = new String[TYPES.length];
+    //标识符和字符串字面量的驻留表
+    private final SymbolTable symbols = new SymbolTable();
+
+    TokenBuffer(char[] source, int capacity) {
+        this(source, null, capacity);
+    }
+
+    TokenBuffer(ByteBuffer bytes, int capacity) {
+        this(null, bytes, capacity);
+    }
+
+    private TokenBuffer(char[] source, ByteBuffer bytes, int capacity) {
+        this.source = source;
+        this.bytes = bytes;
+        this.types = new byte[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.lines = new int[capacity];
+        this.columns = new int[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line, int column) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+        }
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        columns[count] = column;
+        count++;
+    }
+
+    /**
+     * 追加另一个同一源码上的TokenBuffer中的一段标记
+     * @param other 位置与本缓冲区指向同一个源码
+     * @param from
+     * @param to
+     * @param lineShift 加到行号上的偏移，按块扫描时块内行号从1开始
+     */
+    void append(TokenBuffer other, int from, int to, int lineShift) {
+        int length = to - from;
+        if (count + length > types.length) {
+            int capacity = Math.max(types.length * 2, count + length);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+        }
+        System.arraycopy(other.types, from, types, count, length);
+        System.arraycopy(other.starts, from, starts, count, length);
+        System.arraycopy(other.lengths, from, lengths, count, length);
+        System.arraycopy(other.columns, from, columns, count, length);
+        for (int i = 0; i < length; i++) {
+            lines[count + i] = other.lines[from + i] + lineShift;
+        }
+        count += length;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    int column(int index) {
+        return columns[index];
+    }
+
+    /**
+     * 标记的行号是它结尾所在的行，跨行的字符串从更早的行开始
+     * @param index
+     * @return 标记开头所在的行
+     */
+    int startLine(int index) {
+        if (types[index] != STRING.ordinal()) return lines[index];
+        int newlines = 0;
+        int end = starts[index] + lengths[index];
+        for (int i = starts[index]; i < end; i++) {
+            if ((bytes == null ? source[i] : bytes.get(i)) == '\n') newlines++;
+        }
+        return lines[index] - newlines;
+    }
+
+    String lexeme(int index) {
+        TokenType type = type(index);
+        if (type == IDENTIFIER) {
+            return intern(starts[index], lengths[index]);
+        }
+        if (type == NUMBER || type == STRING) {
+            return text(type, starts[index], lengths[index]);
+        }
+        String lexeme = fixedLexemes[type.ordinal()];
+        if (lexeme == null) {
+            lexeme = text(type, starts[index], lengths[index]);
+            fixedLexemes[type.ordinal()] = lexeme;
+        }
+        return lexeme;
+    }
+
+    Object literal(int index) {
+        if (types[index] == STRING.ordinal()) {
+            return intern(starts[index] + 1, lengths[index] - 2);
+        }
+        if (bytes == null) {
+            return Scanner.literalValue(type(index), source, starts[index], lengths[index]);
+        }
+        if (types[index] == NUMBER.ordinal()) {
+            return Double.parseDouble(text(NUMBER, starts[index], lengths[index]));
+        }
+        return null;
+    }
+
+    /**
+     * @param type 只有字符串字面量可能含有多字节字符
+     * @param start
+     * @param length
+     * @return
+     */
+    private String text(TokenType type, int start, int length) {
+        if (bytes == null) return new String(source, start, length);
+        return type == STRING ? Utf8Scanner.decode(bytes, start, length) : Utf8Scanner.ascii(bytes, start, length);
+    }
+
+    private String intern(int start, int length) {
+        return bytes == null ? symbols.intern(source, start, length) : symbols.intern(bytes, start, length);
+    }
+
+    /**
+     * 生成第index个标记的Token对象
+     * @param index
+     * @return
+     */
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), lines[index], columns[index]);
+    }
+
+    /**
+     * 供解析器使用的游标，只在取previous或报错时生成Token
+     * @return
+     */
+    TokenCursor cursor() {
+        return cursor(null);
+    }
+
+    /**
+     * @param scanErrors 不为null时每取到一个新标记就报告它之前暂存的扫描错误
+     * @return
+     */
+    TokenCursor cursor(ScanErrors scanErrors) {
+        if (scanErrors != null) scanErrors.reached(this, 0);
+        return new TokenCursor() {
+            private int current = 0;
+
+            @Override
+            public TokenType peekType() {
+                return type(current);
+            }
+
+            @Override
+            public Token peek() {
+                return token(current);
+            }
+
+            @Override
+            public Token previous() {
+                return token(current - 1);
+            }
+
+            @Override
+            public TokenType previousType() {
+                return type(current - 1);
+            }
+
+            @Override
+            public Object previousLiteral() {
+                return literal(current - 1);
+            }
+
+            @Override
+            public void advance() {
+                current++;
+                if (scanErrors != null) scanErrors.reached(TokenBuffer.this, current);
+            }
+        };
+    }
+}
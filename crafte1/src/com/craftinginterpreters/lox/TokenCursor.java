@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * 解析器读取标记的游标，只需要下一个标记和最近消费的标记
+ */
+interface TokenCursor {
+    //下一个标记的类型
+    TokenType peekType();
+
+    //下一个标记
+    Token peek();
+
+    //最近消费的标记
+    Token previous();
+
+    //最近消费的标记的类型
+    TokenType previousType();
+
+    //最近消费的标记的字面值
+    Object previousLiteral();
+
+    //消费下一个标记，调用方保证不越过EOF
+    void advance();
+}
@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * 语法标记来源，解析器每次只拉取下一个标记
+ * 到达结尾后每次调用都返回EOF标记
+ */
+interface TokenSource {
+    Token nextToken();
+}
@@ -17,7 +17,7 @@ enum TokenType {
     IDENTIFIER, STRING, NUMBER,
 
     //关键字
-    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
+    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR,
     PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
 
     EOF
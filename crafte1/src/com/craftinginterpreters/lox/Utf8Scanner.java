@@ -0,0 +1,321 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * 直接在UTF-8字节上扫描，源码可以是内存映射的文件，不先解码为字符串
+ * 除字符串字面量外Lox的标记都是ASCII，多字节序列只会出现在字符串、注释和非法字符中，
+ * 所以按字节扫描得到的标记、行号与先解码再扫描相同；列号仍按UTF-16字符计算
+ * 标识符和字符串的文本由TokenBuffer在需要时才解码
+ */
+final class Utf8Scanner {
+    private final ByteBuffer source;
+    private final int limit;
+    private final ErrorReporter reporter;
+    private TokenBuffer tokens;
+    private int start = 0;
+    private int current = 0;
+    private int line = 1;
+    //当前行第一个字节的位置
+    private int lineStart = 0;
+    //当前行中多字节序列比对应的UTF-16字符多出的字节数，用于把字节位置换算为列号
+    private int lineExtra = 0;
+    //当前词素的起始列
+    private int startColumn = 1;
+
+    /**
+     * @param source 从0到limit的UTF-8字节，扫描和使用标记期间不能修改
+     * @param reporter
+     */
+    Utf8Scanner(ByteBuffer source, ErrorReporter reporter) {
+        this.source = source;
+        this.limit = source.limit();
+        this.reporter = reporter;
+    }
+
+    /**
+     * 标记位置按字节记录
+     * @return
+     */
+    TokenBuffer scanTokenBuffer() {
+        tokens = new TokenBuffer(source, limit / 4 + 16);
+        while (!isAtEnd()) {
+            start = current;
+            startColumn = column();
+            scanToken();
+        }
+        tokens.add(EOF, current, 0, line, column());
+        LoxMetrics.global().addTokens(tokens.size());
+        TokenBuffer result = tokens;
+        tokens = null;
+        return result;
+    }
+
+    /**
+     * 按UTF-8解码一段字节，非法序列替换为U+FFFD，与按字符读取文件时一致
+     * @param bytes
+     * @param start
+     * @param length
+     * @return
+     */
+    static String decode(ByteBuffer bytes, int start, int length) {
+        byte[] copy = new byte[length];
+        bytes.get(start, copy);
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 数字、标识符和运算符都是ASCII，按单字节编码直接复制，不做UTF-8校验
+     * @param bytes
+     * @param start
+     * @param length
+     * @return
+     */
+    static String ascii(ByteBuffer bytes, int start, int length) {
+        byte[] copy = new byte[length];
+        bytes.get(start, copy);
+        return new String(copy, StandardCharsets.ISO_8859_1);
+    }
+
+    private void scanToken() {
+        int c = advance();
+        switch (c) {
+            case '(': addToken(LEFT_PAREN); break;
+            case ')': addToken(RIGHT_PAREN); break;
+            case '{': addToken(LEFT_BRACE); break;
+            case '}': addToken(RIGHT_BRACE); break;
+            case ',': addToken(COMMA); break;
+            case '.': addToken(DOT); break;
+            case '-': addToken(MINUS); break;
+            case '+': addToken(PLUS); break;
+            case ';': addToken(SEMICOLON); break;
+            case '*': addToken(STAR); break;
+            case '!': addToken(match('=') ? BANG_EQUAL : BANG); break;
+            case '=': addToken(match('=') ? EQUAL_EQUAL : EQUAL); break;
+            case '<': addToken(match('=') ? LESS_EQUAL : LESS); break;
+            case '>': addToken(match('=') ? GREATER_EQUAL : GREATER); break;
+            case '/':
+                if (match('/')) {
+                    //注释中可能有多字节字符，逐字节计入列号换算
+                    while (peek() != '\n' && !isAtEnd()) skip();
+                } else {
+                    addToken(SLASH);
+                }
+                break;
+            case ' ':
+            case '\r':
+            case '\t':
+                break;
+            case '\n':
+                line++;
+                lineStart = current;
+                lineExtra = 0;
+                break;
+            case '"': string(); break;
+            default:
+                if (isDigit(c)) {
+                    number();
+                } else if (isAlpha(c)) {
+                    identifier();
+                } else if (c >= 0x80) {
+                    unexpectedSequence(c);
+                } else {
+                    error(startColumn, "Unexpected character.");
+                }
+                break;
+        }
+    }
+
+    /**
+     * 非ASCII字符在字符串和注释之外都是非法的
+     * 与按字符扫描一致，每个UTF-16字符报告一次，完整的四字节序列是两个字符
+     * @param lead 首字节
+     */
+    private void unexpectedSequence(int lead) {
+        int length = (lead & 0xE0) == 0xC0 ? 2 : (lead & 0xF0) == 0xE0 ? 3 : (lead & 0xF8) == 0xF0 ? 4 : 1;
+        int consumed = 1;
+        while (consumed < length && !isAtEnd() && (source.get(current) & 0xC0) == 0x80) {
+            current++;
+            consumed++;
+        }
+        int units = length == 4 && consumed == 4 ? 2 : 1;
+        lineExtra += consumed - units;
+        error(startColumn, "Unexpected character.");
+        if (units == 2 && !reporter.full()) {
+            error(startColumn + 1, "Unexpected character.");
+        }
+    }
+
+    private void identifier() {
+        //热点循环直接用局部变量读取缓冲区
+        int end = current;
+        while (end < limit && isAlphaNumeric(source.get(end))) end++;
+        current = end;
+        addToken(keywordType());
+    }
+
+    /**
+     * 与Scanner相同，按首字母（必要时再看第二个字母）分支，剩余部分逐字节比较
+     * @return
+     */
+    private TokenType keywordType() {
+        switch (source.get(start)) {
+            case 'a': return checkKeyword(1, "nd", AND);
+            case 'c': return checkKeyword(1, "lass", CLASS);
+            case 'e': return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source.get(start + 1)) {
+                        case 'a': return checkKeyword(2, "lse", FALSE);
+                        case 'o': return checkKeyword(2, "r", FOR);
+                        case 'u': return checkKeyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if (current - start > 1) {
+                    switch (source.get(start + 1)) {
+                        case 'f': return checkKeyword(2, "", IF);
+                        case 'm': return checkKeyword(2, "port", IMPORT);
+                    }
+                }
+                break;
+            case 'n': return checkKeyword(1, "il", NIL);
+            case 'o': return checkKeyword(1, "r", OR);
+            case 'p': return checkKeyword(1, "rint", PRINT);
+            case 'r': return checkKeyword(1, "eturn", RETURN);
+            case 's': return checkKeyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (source.get(start + 1)) {
+                        case 'h': return checkKeyword(2, "is", THIS);
+                        case 'r': return checkKeyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", VAR);
+            case 'w': return checkKeyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (source.get(start + offset + i) != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
+    }
+
+    private void number() {
+        current = digits(current);
+        if (peek() == '.' && isDigit(peekNext())) {
+            current = digits(current + 1);
+        }
+        addToken(NUMBER);
+    }
+
+    /**
+     * @param from
+     * @return from之后第一个不是数字的位置
+     */
+    private int digits(int from) {
+        int end = from;
+        while (end < limit && isDigit(source.get(end))) end++;
+        return end;
+    }
+
+    private void string() {
+        while (peek() != '"' && !isAtEnd()) {
+            if (peek() == '\n') {
+                line++;
+                lineStart = current + 1;
+                lineExtra = 0;
+                current++;
+            } else {
+                skip();
+            }
+        }
+        if (isAtEnd()) {
+            error(column(), "Unterminated string.");
+            return;
+        }
+        advance();
+        addToken(STRING);
+    }
+
+    /**
+     * 越过字符串或注释中的一个字节，多字节序列的后续字节和四字节序列的首字节调整列号换算
+     */
+    private void skip() {
+        int b = source.get(current++);
+        if ((b & 0xC0) == 0x80) {
+            lineExtra++;
+        } else if ((b & 0xF8) == 0xF0) {
+            //四字节序列对应两个UTF-16字符
+            lineExtra--;
+        }
+    }
+
+    private int column() {
+        return current - lineStart - lineExtra + 1;
+    }
+
+    private boolean match(char expected) {
+        if (isAtEnd()) return false;
+        if (source.get(current) != expected) return false;
+        current++;
+        return true;
+    }
+
+    private int peek() {
+        if (isAtEnd()) return '\0';
+        return source.get(current) & 0xFF;
+    }
+
+    private int peekNext() {
+        if (current + 1 >= limit) return '\0';
+        return source.get(current + 1) & 0xFF;
+    }
+
+    private int advance() {
+        return source.get(current++) & 0xFF;
+    }
+
+    private static boolean isAlpha(int c) {
+        return (c >= 'a' && c <= 'z') ||
+                (c >= 'A' && c <= 'Z') ||
+                c == '_';
+    }
+
+    private static boolean isAlphaNumeric(int c) {
+        return isAlpha(c) || isDigit(c);
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean isAtEnd() {
+        return current >= limit;
+    }
+
+    private void addToken(TokenType type) {
+        tokens.add(type, start, current - start, line, startColumn);
+    }
+
+    /**
+     * 报告扫描错误，错误接收方不再接收时直接跳到结尾
+     * @param column
+     * @param message
+     */
+    private void error(int column, String message) {
+        reporter.error(line, column, message);
+        if (reporter.full()) {
+            current = limit;
+        }
+    }
+}
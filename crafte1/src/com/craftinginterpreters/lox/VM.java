@@ -0,0 +1,219 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+/**
+ * 基于栈的字节码虚拟机，与Interpreter的输出和运行时错误保持一致
+ */
+class VM {
+    //全局变量，在交互模式下跨多次执行保留
+    private final Environment globals = new Environment();
+    private Object[] stack = new Object[256];
+    //print指令的输出目标
+    private final PrintWriter out;
+
+    VM() {
+        this(Interpreter.standardOutput());
+    }
+
+    VM(PrintWriter out) {
+        this.out = out;
+    }
+
+    void interpret(Chunk chunk) {
+        if (stack.length < chunk.maxStack) {
+            stack = new Object[chunk.maxStack];
+        }
+        try {
+            run(chunk);
+        } finally {
+            out.flush();
+            Arrays.fill(stack, null);
+        }
+    }
+
+    /**
+     * 立即刷新缓冲的输出
+     */
+    void flush() {
+        out.flush();
+    }
+
+    /**
+     * 指令分派循环
+     * @param chunk
+     */
+    private void run(Chunk chunk) {
+        final byte[] code = chunk.code;
+        final Object[] constants = chunk.constants();
+        final Object[] stack = this.stack;
+        //按名称常量下标缓存全局变量单元，每个名称只查找一次
+        final Environment.Cell[] cells = new Environment.Cell[constants.length];
+        int ip = 0;
+        int sp = 0;
+        for (;;) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OP_CONSTANT:
+                    stack[sp++] = constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OP_NIL: stack[sp++] = null; break;
+                case OP_TRUE: stack[sp++] = true; break;
+                case OP_FALSE: stack[sp++] = false; break;
+                case OP_POP: stack[--sp] = null; break;
+                case OP_GET_LOCAL:
+                    stack[sp++] = stack[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OP_SET_LOCAL:
+                    stack[readShort(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case OP_DEFINE_LOCAL:
+                    stack[readShort(code, ip)] = stack[--sp];
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                case OP_GET_GLOBAL: {
+                    int index = readShort(code, ip);
+                    Environment.Cell cell = cells[index];
+                    if (cell == null) {
+                        cell = cells[index] = globalCell(chunk, ip - 1, (String) constants[index]);
+                    }
+                    stack[sp++] = cell.value;
+                    ip += 2;
+                    break;
+                }
+                case OP_SET_GLOBAL: {
+                    int index = readShort(code, ip);
+                    Environment.Cell cell = cells[index];
+                    if (cell == null) {
+                        cell = cells[index] = globalCell(chunk, ip - 1, (String) constants[index]);
+                    }
+                    cell.value = stack[sp - 1];
+                    ip += 2;
+                    break;
+                }
+                case OP_DEFINE_GLOBAL:
+                    globals.define((String) constants[readShort(code, ip)], stack[--sp]);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                case OP_EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+                    stack[sp] = null;
+                    break;
+                }
+                case OP_GREATER:
+                case OP_GREATER_EQUAL:
+                case OP_LESS:
+                case OP_LESS_EQUAL:
+                case OP_SUBTRACT:
+                case OP_MULTIPLY:
+                case OP_DIVIDE: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    stack[sp] = null;
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        throw error(chunk, ip - 1, "Operands must be numbers.");
+                    }
+                    double left = (double) a;
+                    double right = (double) b;
+                    Object result;
+                    switch (instruction) {
+                        case OP_GREATER: result = left > right; break;
+                        case OP_GREATER_EQUAL: result = left >= right; break;
+                        case OP_LESS: result = left < right; break;
+                        case OP_LESS_EQUAL: result = left <= right; break;
+                        case OP_SUBTRACT: result = left - right; break;
+                        case OP_MULTIPLY: result = left * right; break;
+                        default: result = left / right; break;
+                    }
+                    stack[sp - 1] = result;
+                    break;
+                }
+                case OP_ADD: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    stack[sp] = null;
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[sp - 1] = (double) a + (double) b;
+                    } else if (Rope.isString(a) && Rope.isString(b)) {
+                        stack[sp - 1] = Rope.concat(a, b);
+                    } else {
+                        throw error(chunk, ip - 1, "Operands must two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OP_NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case OP_NEGATE:
+                    if (!(stack[sp - 1] instanceof Double)) {
+                        throw error(chunk, ip - 1, "Operand must be a number");
+                    }
+                    stack[sp - 1] = -(double) stack[sp - 1];
+                    break;
+                case OP_PRINT:
+                    out.println(Interpreter.stringify(stack[--sp]));
+                    stack[sp] = null;
+                    break;
+                case OP_ENTER: {
+                    //新作用域的变量初始为nil
+                    int slotCount = readShort(code, ip);
+                    Arrays.fill(stack, sp, sp + slotCount, null);
+                    sp += slotCount;
+                    ip += 2;
+                    break;
+                }
+                case OP_LEAVE: {
+                    int slotCount = readShort(code, ip);
+                    Arrays.fill(stack, sp - slotCount, sp, null);
+                    sp -= slotCount;
+                    ip += 2;
+                    break;
+                }
+                case OP_RETURN:
+                    return;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + instruction);
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    /**
+     * 按名称查找全局变量单元，变量未定义时报错
+     * @param chunk
+     * @param offset 指令位置
+     * @param name
+     * @return
+     */
+    private Environment.Cell globalCell(Chunk chunk, int offset, String name) {
+        Environment.Cell cell = globals.findCell(name);
+        if (cell == null) {
+            throw error(chunk, offset, "Undefined variable '" + name + "'.");
+        }
+        return cell;
+    }
+
+    /**
+     * 用指令所在行构造运行时错误，行号与树遍历解释器报告的标记所在行相同
+     * @param chunk
+     * @param offset
+     * @param message
+     * @return
+     */
+    private RuntimeError error(Chunk chunk, int offset, String message) {
+        Token token = new Token(TokenType.EOF, "", null, chunk.lines[offset]);
+        return new RuntimeError(token, message);
+    }
+}
@@ -15,19 +15,21 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
+        //第三段为解析阶段回填的字段，不进入构造器；cell是执行时缓存的全局变量单元
         defineAst(outputDir, "Expr", Arrays.asList(
-           "Assign   : Token name,Expr value",
-           "Binary   : Expr left,Token operator,Expr right",
+           "Assign   : Token name, Expr value : int depth = -1,int slot = -1,Environment.Cell cell = null",
+           "Binary   : Expr left,Token operator,Expr right : byte numeric = 0",
            "Grouping : Expr expression",
            "Literal  : Object value",
            "Unary    : Token operator,Expr right",
-            "Variable : Token name"
+            "Variable : Token name : int depth = -1,int slot = -1,Environment.Cell cell = null"
         ));
         defineAst(outputDir,"Stmt",Arrays.asList(
-                "Block      : List<Stmt> statements",
+                "Block      : Token brace, List<Stmt> statements : int slotCount = 0",
                 "Expression : Expr expression",
-                "Print      : Expr expression",
-                "Var        : Token name,Expr initializer"
+                "Import     : Token keyword, Token path",
+                "Print      : Token keyword, Expr expression",
+                "Var        : Token name, Expr initializer : int slot = -1"
         ));
     }
 
@@ -53,9 +55,11 @@ public class GenerateAst {
         defineVisitor(writer, baseName, types);
 
         for (String type: types) {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer,baseName,className,fields);
+            String[] parts = type.split(":");
+            String className = parts[0].trim();
+            String fields = parts[1].trim();
+            String resolved = parts.length > 2 ? parts[2].trim() : null;
+            defineType(writer,baseName,className,fields,resolved);
         }
         writer.println();
         writer.println("  abstract <R> R accept(Visitor<R> visitor);");
@@ -84,19 +88,25 @@ public class GenerateAst {
      * @param baseName
      * @param className
      * @param fieldList
+     * @param resolvedList 解析阶段写入的可变字段，可为null
      */
-    private static void defineType(PrintWriter writer,String baseName,String className,String fieldList) {
+    private static void defineType(PrintWriter writer,String baseName,String className,String fieldList,String resolvedList) {
         writer.println(" static class "+className+" extends "+baseName+" {");
         String[] fields = fieldList.split(",");
         //变量
         for (String field : fields) {
-            writer.println("    final "+field+";");
+            writer.println("    final "+field.trim()+";");
+        }
+        if (resolvedList != null) {
+            for (String field : resolvedList.split(",")) {
+                writer.println("    "+field.trim()+";");
+            }
         }
 
         //构造器
         writer.println("    "+className+"("+fieldList+"){");
         for (String field:fields) {
-            String name = field.split(" ")[1];
+            String name = field.trim().split(" ")[1];
             writer.println("      this."+name+" = "+name+";");
         }
         writer.println("    }");